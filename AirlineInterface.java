@@ -106,4 +106,25 @@ public interface AirlineInterface {
   public boolean updateRoute(String source, String destination, int distance,
     double price) throws CityNotFoundException;
 
+  /**
+   * removes the direct route between two existing cities from the Airline
+   * system
+   * @param source the String source city name
+   * @param destination the String destination city name
+   * @return true if route removed successfully and false if no route exists
+   * between the two cities
+   * @throws CityNotFoundException if any of the two cities are not found in the
+   * Airline system
+   */
+  public boolean removeRoute(String source, String destination)
+    throws CityNotFoundException;
+
+  /**
+   * removes a city and all of its routes from the Airline system
+   * @param city the city name
+   * @return true if city removed successfully and false if the city does not
+   * exist
+   */
+  public boolean removeCity(String city);
+
 }
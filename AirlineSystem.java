@@ -1,11 +1,41 @@
 import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.time.Duration;
+import java.time.Instant;
 import java.io.*;
 
 final public class AirlineSystem implements AirlineInterface {
   private ArrayList<String> cityNames = null;
   private Digraph G = null;
+  private ParallelBFS bfsEngine = null;
+  private VersionedGraph.Version bfsGraph = null;
+
+  private ComponentIndex components = null;
+  private CityIndex cityIndex = null;
+  private ConnectionScan timetable = null;
+  private PartitionCoordinator partitions = null;
+  private VersionedGraph.Version partitionGraph = null;  // the version the workers hold
+  private int partitionCount = 0;                        // regions asked for, 0 if not partitioned
+  private boolean partitionProcesses = false;
+  private volatile boolean repartitionQueued = false;
+  private VersionedGraph versions = null;
+  private ConstrainedSearch constrainedEngine = null;
+  private VersionedGraph.Version constrainedGraph = null;
+  private Isochrone isochrone = null;
+  private VersionedGraph.Version isochroneGraph = null;
+
+  private RouteRangeIndex ranges = null;
+  private ExecutorService maintenance = null;
+  private volatile boolean compactionQueued = false;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
   private static Scanner scan = null;
   private static int INFINITY = Integer.MAX_VALUE;
+  private static final int VERSIONS_KEPT = 16;
+  private static final int COMPACT_MIN = 64;    // fewest tombstones worth a compaction
+  private static final int COMPACT_RATIO = 4;   // compact when tombstones exceed 1/COMPACT_RATIO of the network
 
   /**
    * reads the city names and the routes from a file
@@ -13,15 +43,21 @@ final public class AirlineSystem implements AirlineInterface {
    * @return true if routes loaded successfully and false otherwise
    */
   public boolean loadRoutes(String fileName) {
+    lock.writeLock().lock();
     try {
       Scanner inScan = new Scanner(new FileInputStream(fileName));
       int v = Integer.parseInt(inScan.nextLine());
+      dropPartitions(false);
       G = new Digraph(v);
+      bfsEngine = null;
+      timetable = null;
+      compactionQueued = false;
 
       cityNames = new ArrayList<String>(v);
       for(int i=0; i<v; i++){
         cityNames.add(inScan.nextLine());
       }
+      cityIndex = new CityIndex(cityNames);
 
       while(inScan.hasNext()){
         int from = inScan.nextInt();
@@ -33,12 +69,189 @@ final public class AirlineSystem implements AirlineInterface {
         G.addEdge(new WeightedDirectedEdge(to-1, from-1, weight, price));
       }
       inScan.close();
+      components = new ComponentIndex(G);
+      versions = new VersionedGraph(G, VERSIONS_KEPT);
+      ranges = new RouteRangeIndex(G);
+      constrainedEngine = null;
+      isochrone = null;
       System.out.println("Data imported successfully.");
       System.out.print("Please press ENTER to continue ...");
       return true;
     } catch (FileNotFoundException e) {
       e.printStackTrace();
       return false;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * reloads the city names and routes from a file while queries keep
+   * running. The file is parsed and compared with the live network in the
+   * background and only the cities and routes that were added, removed or
+   * changed are applied, so indexes and caches are only updated for what
+   * changed. Queries already running finish against the network as it was
+   * when they started.
+   * @param fileName the String file name
+   * @return a CompletableFuture<Boolean> that completes with true once the
+   * new routes are live and false if the file could not be read
+   */
+  public CompletableFuture<Boolean> reloadRoutes(String fileName) {
+    return CompletableFuture.supplyAsync(() -> reload(fileName), maintenance());
+  }
+
+  //one background thread for reloads and compactions, so they never overlap
+  private synchronized ExecutorService maintenance() {
+    if(maintenance == null){
+      maintenance = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "route-maintenance");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return maintenance;
+  }
+
+  private boolean reload(String fileName) {
+    RouteFile file;
+    try {
+      file = RouteFile.read(fileName);
+    } catch (IOException | RuntimeException e) {
+      System.out.println("Error reloading routes from " + fileName + ": " + e.getMessage());
+      return false;
+    }
+    if(G == null) return loadRoutes(fileName);
+
+    while(true){
+      //diff against a consistent view of the live network
+      ArrayList<String> newCities = new ArrayList<String>();
+      ArrayList<String[]> added = new ArrayList<String[]>();
+      ArrayList<String[]> repriced = new ArrayList<String[]>();
+      ArrayList<String> oldCities = new ArrayList<String>();
+      ArrayList<String[]> removed = new ArrayList<String[]>();
+      long version;
+      lock.readLock().lock();
+      try {
+        version = versions.current().number();
+        Map<String, WeightedDirectedEdge> live = new HashMap<String, WeightedDirectedEdge>();
+        for (int v = 0; v < G.v; v++) {
+          for (WeightedDirectedEdge e : G.adj(v)) {
+            live.putIfAbsent(pairKey(cityNames.get(e.from), cityNames.get(e.to)), e);
+          }
+        }
+        Set<String> names = new HashSet<String>(file.names);
+        for (int v = 0; v < G.v; v++) {
+          if(!G.isRemoved(v) && !names.contains(cityNames.get(v))) oldCities.add(cityNames.get(v));
+        }
+        for (String city : file.names) {
+          if(cityIndex.indexOf(city) == -1) newCities.add(city);
+        }
+        for (Map.Entry<String, String[]> r : file.routes.entrySet()) {
+          WeightedDirectedEdge e = live.remove(r.getKey());
+          String[] route = r.getValue();
+          if(e == null){
+            added.add(route);
+          } else if(e.weight != Integer.parseInt(route[2]) || e.price != Double.parseDouble(route[3])){
+            repriced.add(route);
+          }
+        }
+        for (WeightedDirectedEdge e : live.values()) {
+          removed.add(new String[] {cityNames.get(e.from), cityNames.get(e.to)});
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      lock.writeLock().lock();
+      try {
+        //somebody changed the network since the diff, compare again
+        if(versions.current().number() != version) continue;
+        //the whole reload becomes one version, so it cannot push the
+        //versions kept for readers out of the history
+        VersionedGraph.Batch batch = versions.begin();
+        for (String[] r : removed) {
+          removeRoute(r[0], r[1], batch);
+        }
+        for (String city : oldCities) {
+          removeCity(city, batch);
+        }
+        for (String city : newCities) {
+          addCity(city, batch);
+        }
+        for (String[] r : added) {
+          addRoute(r[0], r[1], Integer.parseInt(r[2]), Double.parseDouble(r[3]), batch);
+        }
+        for (String[] r : repriced) {
+          updateRoute(r[0], r[1], Integer.parseInt(r[2]), Double.parseDouble(r[3]), batch);
+        }
+        if(removed.size() + oldCities.size() + newCities.size() + added.size() + repriced.size() > 0)
+          batch.commit();
+        if(!removed.isEmpty() || !oldCities.isEmpty()) afterRemoval();
+      } catch (CityNotFoundException e) {
+        //cannot happen, every city was added above
+        return false;
+      } finally {
+        lock.writeLock().unlock();
+      }
+      System.out.println("Routes reloaded from " + fileName + ": " + newCities.size()
+        + " cities added, " + oldCities.size() + " cities removed, " + added.size()
+        + " routes added, " + removed.size() + " routes removed, " + repriced.size()
+        + " routes updated.");
+      return true;
+    }
+  }
+
+  //the same key for both directions of a route
+  private static String pairKey(String a, String b) {
+    return a.compareTo(b) < 0 ? a + "\n" + b : b + "\n" + a;
+  }
+
+  /**
+   * reads scheduled flights between the loaded cities from a timetable file.
+   * Each line has the 1-based source and destination city indices (as in
+   * the routes file) and the departure and arrival times as H:MM, where
+   * hours past 23 fall on later days, e.g. "1 2 8:00 9:05".
+   * @param fileName the String file name
+   * @return true if the timetable loaded successfully and false otherwise
+   */
+  public boolean loadTimetable(String fileName) {
+    lock.writeLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        return false;
+      }
+      Scanner inScan = new Scanner(new FileInputStream(fileName));
+      int m = 0;
+      int[] from = new int[16], to = new int[16], dep = new int[16], arr = new int[16];
+      while(inScan.hasNext()){
+        if(m == from.length){
+          from = Arrays.copyOf(from, 2 * m);
+          to = Arrays.copyOf(to, 2 * m);
+          dep = Arrays.copyOf(dep, 2 * m);
+          arr = Arrays.copyOf(arr, 2 * m);
+        }
+        from[m] = inScan.nextInt() - 1;
+        to[m] = inScan.nextInt() - 1;
+        dep[m] = Flight.parseTime(inScan.next());
+        arr[m] = Flight.parseTime(inScan.next());
+        if(from[m] < 0 || from[m] >= G.v || to[m] < 0 || to[m] >= G.v
+           || G.isRemoved(from[m]) || G.isRemoved(to[m])){
+          System.out.println("Unknown city index on flight " + (m + 1));
+          inScan.close();
+          return false;
+        }
+        m++;
+      }
+      inScan.close();
+      timetable = new ConnectionScan(G.v, Arrays.copyOf(from, m),
+        Arrays.copyOf(to, m), Arrays.copyOf(dep, m), Arrays.copyOf(arr, m));
+      return true;
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+      return false;
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -48,15 +261,24 @@ final public class AirlineSystem implements AirlineInterface {
    */
   public Set<String> retrieveCityNames() {
     Set<String> cities = new HashSet<String>();
+    VersionedGraph.Version graph;
+    List<String> names;
+    lock.readLock().lock();
+    try {
+      graph = G == null ? null : versions.current();
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
 
-    if(G == null){
+    if(graph == null){
       System.out.println("Please import a graph first (option 1).");
       System.out.print("Please press ENTER to continue ...");
       scan = new Scanner(System.in);
       scan.nextLine();
     } else {
-      for (int i = 0; i < G.v; i++) {
-        cities.add(cityNames.get(i));
+      for (int i = 0; i < graph.vertexCount(); i++) {
+        if(!graph.isRemoved(i)) cities.add(names.get(i));
       }
     }
     return cities;
@@ -72,22 +294,30 @@ final public class AirlineSystem implements AirlineInterface {
    */
   public Set<Route> retrieveDirectRoutesFrom(String city)
           throws CityNotFoundException {
+    VersionedGraph.Version graph;
+    List<String> names;
+    int cityIn;
+    lock.readLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        System.out.print("Please press ENTER to continue ...");
+        return null;
+      }
 
-    //note the return type
-    Set<Route> directRoutes = new HashSet<Route>();
-    if(G == null){
-      System.out.println("Please import a graph first (option 1).");
-      System.out.print("Please press ENTER to continue ...");
-      return null;
+      cityIn = findIndex(city);
+      if(cityIn == -1)
+        return null;
+      graph = versions.current();
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
     }
 
-    int cityIn = findIndex(city);
-    if(cityIn == -1)
-      return null;
-
-    for (WeightedDirectedEdge e : G.adj[cityIn]) {
-      directRoutes.add(new Route(cityNames.get(e.from), cityNames.get(e.to), e.weight, e.price ));
-    }
+    //note the return type
+    Set<Route> directRoutes = new HashSet<Route>();
+    graph.forEachEdge(cityIn, (from, to, weight, price) ->
+      directRoutes.add(new Route(names.get(from), names.get(to), weight, price)));
     return directRoutes;
   }
 
@@ -106,43 +336,96 @@ final public class AirlineSystem implements AirlineInterface {
                                                      String destination) throws CityNotFoundException {
     //for the return type
     Set<ArrayList<String>> stopSet = new HashSet<ArrayList<String>>();
+    VersionedGraph.Version graph;
+    List<String> names;
+    int srcIn, desIn;
+    lock.readLock().lock();
+    try {
+      if(findIndex(source) == -1 || findIndex(destination) == -1) throw new CityNotFoundException("city not found");
 
-    if(!cityNames.contains(source) || !cityNames.contains(destination)) throw new CityNotFoundException("city not found");
-
-    if(G == null){
-      System.out.println("Please import a graph first (option 1).");
-      System.out.print("Please press ENTER to continue ...");
-      scan.nextLine();
-    } else {
-      int srcIn = findIndex(source);
-      int desIn = findIndex(destination);
-
-      G.bfs(srcIn);
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        System.out.print("Please press ENTER to continue ...");
+        scan.nextLine();
+        return stopSet;
+      }
+      srcIn = findIndex(source);
+      desIn = findIndex(destination);
 
-      if(!G.marked[desIn]){
+      //different components, skip the search
+      if(!components().connected(srcIn, desIn)){
         System.out.println("There is no route from " + cityNames.get(srcIn) + " to " + cityNames.get(desIn));
         return null;
-      } else {
-        Stack<Integer> path = new Stack<>();
-        int vertices = 0;
-        for (int x = desIn; x != srcIn; x = G.edgeTo[x]){
-          path.push(x);
-          vertices++;
-        }
-        path.push(srcIn);
+      }
+      graph = versions.current();
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
 
-        ArrayList<String> stops = new ArrayList<String>(vertices);
+    //stops as soon as the destination is reached
+    ShortestPaths bfs = ShortestPaths.forThread().bfs(graph, srcIn, desIn, null);
 
-        while(!path.empty()){
-          stops.add(cityNames.get(path.pop()));
-        }
-        //For the return type
-        stopSet.add(stops);
-      }
+    if(!bfs.hasPathTo(desIn)){
+      System.out.println("There is no route from " + names.get(srcIn) + " to " + names.get(desIn));
+      return null;
+    }
+    Stack<Integer> path = new Stack<>();
+    int vertices = 0;
+    for (int x = desIn; x != srcIn; x = bfs.edgeTo(x)){
+      path.push(x);
+      vertices++;
+    }
+    path.push(srcIn);
+
+    ArrayList<String> stops = new ArrayList<String>(vertices + 1);
+
+    while(!path.empty()){
+      stops.add(names.get(path.pop()));
     }
+    //For the return type
+    stopSet.add(stops);
     return stopSet;
   }
 
+  /**
+   * finds the number of hops from a city to every city reachable from it
+   * @param city the String city name
+   * @return a Map<String, Integer> from each reachable city name to the
+   * fewest number of routes needed to get there from city (0 for city itself)
+   * @throws CityNotFoundException if the city is not found in the Airline
+   * system
+   */
+  public Map<String, Integer> hopDistancesFrom(String city)
+          throws CityNotFoundException {
+    Map<String, Integer> hops = new HashMap<String, Integer>();
+    VersionedGraph.Version graph;
+    List<String> names;
+    int cityIn;
+    lock.readLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        System.out.print("Please press ENTER to continue ...");
+        return hops;
+      }
+
+      cityIn = findIndex(city);
+      if(cityIn == -1) throw new CityNotFoundException("city not found");
+      graph = versions.current();
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    ParallelBFS.Paths bfs = bfsEngine(graph).run(cityIn);
+    for (int i = 0; i < graph.vertexCount(); i++) {
+      if (bfs.hasPathTo(i))
+        hops.put(names.get(i), bfs.distTo(i));
+    }
+    return hops;
+  }
+
   /**
    * finds shortest distance path(s) between two cities
    * @param source the String source city name
@@ -156,47 +439,71 @@ final public class AirlineSystem implements AirlineInterface {
   public Set<ArrayList<Route>> shortestDistanceItinerary(String source,
                                                          String destination) throws CityNotFoundException {
     Set<ArrayList<Route>> SDSet = new HashSet<ArrayList<Route>>();
+    VersionedGraph.Version graph;
+    List<String> names;
+    PartitionCoordinator overlay;
+    int srcIn, desIn;
+    lock.readLock().lock();
+    try {
+      if(findIndex(source) == -1 || findIndex(destination) == -1) throw new CityNotFoundException("city not found");
 
-    if(!cityNames.contains(source) || !cityNames.contains(destination)) throw new CityNotFoundException("city not found");
-
-    if(G == null){
-      System.out.println("Please import a graph first (option 1).");
-      System.out.print("Please press ENTER to continue ...");
-      scan.nextLine();
-    } else {
-      int srcIn = findIndex(source);
-      int desIn = findIndex(destination);
-
-      G.dijkstras(srcIn, desIn);
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        System.out.print("Please press ENTER to continue ...");
+        scan.nextLine();
+        return SDSet;
+      }
+      srcIn = findIndex(source);
+      desIn = findIndex(destination);
 
-      if(!G.marked[desIn]){
+      //different components, skip the search
+      if(!components().connected(srcIn, desIn)){
         System.out.println("There is no route from " + cityNames.get(srcIn) + " to " + cityNames.get(desIn));
         return SDSet;
-      } else {
-        Stack<Integer> path = new Stack<>();
-        int vertices = 0;
-        for (int x = desIn; x != srcIn; x = G.edgeTo[x]){
-          path.push(x);
-          vertices++;
-        }
-
-        ArrayList<Route>  routes = new ArrayList<Route>(vertices);
+      }
+      graph = versions.current();
+      names = cityNames;
+      overlay = partitionGraph == graph ? partitions : null;
+    } finally {
+      lock.readLock().unlock();
+    }
 
-        int prevVertex = srcIn;
-        while(!path.empty()){
-          int v = path.pop();
-          for (WeightedDirectedEdge e : G.adj[prevVertex]) {
-            //add this particular route
-            if (e.to == v) {
-              routes.add(new Route(cityNames.get(e.from), cityNames.get(e.to), e.weight, e.price ));
-              break;
-            }
-          }
-          prevVertex = v;
+    //cross-region queries go through the overlay when partitioned; workers
+    //stopped by a change since then answer with an IOException
+    if(overlay != null && overlay.region(srcIn) != overlay.region(desIn)){
+      try {
+        int[] cities = overlay.shortestPath(srcIn, desIn);
+        ArrayList<Route> routes = cities == null ? null : routesAlong(graph, names, cities);
+        if(routes != null){
+          SDSet.add(routes);
+          return SDSet;
         }
-        SDSet.add(routes);
+      } catch (IOException e) {
+        System.out.println("Region workers unavailable, searching locally: " + e.getMessage());
       }
     }
+
+    ShortestPaths sp = ShortestPaths.forThread().dijkstra(graph, srcIn, desIn);
+
+    if(!sp.hasPathTo(desIn)){
+      System.out.println("There is no route from " + names.get(srcIn) + " to " + names.get(desIn));
+      return SDSet;
+    }
+    Stack<Integer> path = new Stack<>();
+    int vertices = 0;
+    for (int x = desIn; x != srcIn; x = sp.edgeTo(x)){
+      path.push(x);
+      vertices++;
+    }
+
+    ArrayList<Route>  routes = new ArrayList<Route>(vertices);
+
+    while(!path.empty()){
+      int v = path.pop();
+      //add the route the search took into v
+      routes.add(new Route(names.get(sp.edgeTo(v)), names.get(v), sp.weightTo(v), sp.priceTo(v)));
+    }
+    SDSet.add(routes);
     return SDSet;
   }
 
@@ -214,62 +521,747 @@ final public class AirlineSystem implements AirlineInterface {
    */
   public Set<ArrayList<Route>> shortestDistanceItinerary(String source,
                                                          String transit, String destination) throws CityNotFoundException {
-
     Set<ArrayList<Route>> SDSet = new HashSet<ArrayList<Route>>();
-    if(!cityNames.contains(source) ||!cityNames.contains(transit) ||!cityNames.contains(destination)) throw new CityNotFoundException("city not found");
+    VersionedGraph.Version graph;
+    List<String> names;
+    int srcIn, tranIn, desIn;
+    lock.readLock().lock();
+    try {
+      if(findIndex(source) == -1 || findIndex(transit) == -1 || findIndex(destination) == -1) throw new CityNotFoundException("city not found");
+
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        System.out.print("Please press ENTER to continue ...");
+        scan.nextLine();
+        return SDSet;
+      }
+      srcIn = findIndex(source);
+      tranIn= findIndex(transit);
+      desIn = findIndex(destination);
+
+      //different components, skip the search
+      if(!components().connected(srcIn, tranIn) || !components().connected(tranIn, desIn)){
+        return null;
+      }
+      graph = versions.current();
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    //ajusted from lab9
+    Stack<Integer> cities = new Stack<>();
+    cities.push(srcIn);
+    cities.push(tranIn);
+
+    ShortestPaths sp = ShortestPaths.forThread();
+    //the routes of each leg are read before the next search replaces it
+    Stack<Route> path = new Stack<>();
+    while (!cities.isEmpty()){
+      //int newSrc= tranIn;
+      int newSrc= cities.pop();
+
+      sp.dijkstra(graph, newSrc, desIn);
+
+      if(!sp.hasPathTo(desIn)){
+        return null;
+      } else {
+        for (int x = desIn; x != newSrc; x = sp.edgeTo(x)){
+          path.push(new Route(names.get(sp.edgeTo(x)), names.get(x), sp.weightTo(x), sp.priceTo(x)));
+        }
+        desIn = newSrc;
+      }
+    }
+
+    ArrayList<Route> routes = new ArrayList<Route>(path.size());
+
+    while(!path.empty()){
+      routes.add(path.pop());
+    }
+    SDSet.add(routes);
+    return SDSet;
+  }
+
+  /**
+   * finds the scheduled flights that get from source to destination as
+   * early as possible when leaving source no earlier than a given time
+   * @param source the String source city name
+   * @param destination the String destination city name
+   * @param departAfter the earliest departure time, in minutes after
+   * midnight of the first day
+   * @return a (possibly empty) ArrayList<Flight> of the flights to take in
+   * order; empty if there is no such journey or no timetable was loaded
+   * @throws CityNotFoundException if any of the two cities are not found in the
+   * Airline system
+   */
+  public ArrayList<Flight> earliestArrivalItinerary(String source,
+          String destination, int departAfter) throws CityNotFoundException {
+    ArrayList<Flight> flights = new ArrayList<Flight>();
+    ConnectionScan schedule;
+    List<String> names;
+    int srcIn, desIn;
+    lock.readLock().lock();
+    try {
+      srcIn = findIndex(source);
+      desIn = findIndex(destination);
+      if(srcIn == -1 || desIn == -1) throw new CityNotFoundException("city not found");
+      //cities added after the timetable was loaded have no flights
+      if(timetable == null || srcIn >= timetable.cities() || desIn >= timetable.cities()) return flights;
+      schedule = timetable;
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    //a city removed while the scan runs may still be used by it
+    int[] journey = schedule.earliestArrival(srcIn, desIn, departAfter);
+    if(journey == null){
+      System.out.println("There is no flight from " + source + " to " + destination);
+      return flights;
+    }
+    for(int c : journey){
+      flights.add(new Flight(names.get(schedule.from(c)), names.get(schedule.to(c)),
+        schedule.departure(c), schedule.arrival(c)));
+    }
+    return flights;
+  }
+
+  /**
+   * finds the earliest arrival at destination for every departure time from
+   * source, leaving out journeys that another one beats by departing later
+   * and arriving earlier
+   * @param source the String source city name
+   * @param destination the String destination city name
+   * @return a (possibly empty) ArrayList<Flight> sorted by departure. Each
+   * entry summarizes a whole journey as a Flight from source to destination
+   * with its departure and final arrival time.
+   * @throws CityNotFoundException if any of the two cities are not found in the
+   * Airline system
+   */
+  public ArrayList<Flight> departureProfile(String source, String destination)
+          throws CityNotFoundException {
+    ArrayList<Flight> profile = new ArrayList<Flight>();
+    ConnectionScan schedule;
+    int srcIn, desIn;
+    lock.readLock().lock();
+    try {
+      srcIn = findIndex(source);
+      desIn = findIndex(destination);
+      if(srcIn == -1 || desIn == -1) throw new CityNotFoundException("city not found");
+      if(timetable == null || srcIn >= timetable.cities() || desIn >= timetable.cities()) return profile;
+      schedule = timetable;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    int[][] pairs = schedule.profile(srcIn, desIn);
+    for(int i = 0; i < pairs[0].length; i++){
+      profile.add(new Flight(source, destination, pairs[0][i], pairs[1][i]));
+    }
+    return profile;
+  }
+
+  /**
+   * finds a fewest-stops path between two cities in the background, giving
+   * up at a deadline or after a number of cities were searched. Cancelling
+   * the returned future stops the search too.
+   * @param source the String source city name
+   * @param destination the String destination city name
+   * @param deadline when to give up, or null for never
+   * @param maxSettled the most cities to search, or 0 for no limit
+   * @return a CompletableFuture<QueryResult<Set<ArrayList<String>>>> of the
+   * fewest-stops path (an empty set if there is none); if the search was cut
+   * short the result says why and holds the best path found so far, if any
+   * @throws CityNotFoundException if any of the two cities are not found in the
+   * Airline system
+   */
+  public CompletableFuture<QueryResult<Set<ArrayList<String>>>> fewestStopsItineraryAsync(
+          String source, String destination, Instant deadline, long maxSettled)
+          throws CityNotFoundException {
+    return budgeted(source, destination, deadline, maxSettled, (graph, names, srcIn, desIn, budget) -> {
+      ShortestPaths sp = ShortestPaths.forThread().bfs(graph, srcIn, desIn, budget);
+      Set<ArrayList<String>> stopSet = new HashSet<ArrayList<String>>();
+      if(sp.hasPathTo(desIn)){
+        ArrayList<String> stops = new ArrayList<String>();
+        for (int x = desIn; x != srcIn; x = sp.edgeTo(x)){
+          stops.add(names.get(x));
+        }
+        stops.add(names.get(srcIn));
+        Collections.reverse(stops);
+        stopSet.add(stops);
+      }
+      return stopSet;
+    });
+  }
+
+  /**
+   * finds a shortest distance path between two cities in the background,
+   * giving up at a deadline or after a number of cities were searched.
+   * Cancelling the returned future stops the search too.
+   * @param source the String source city name
+   * @param destination the String destination city name
+   * @param deadline when to give up, or null for never
+   * @param maxSettled the most cities to search, or 0 for no limit
+   * @return a CompletableFuture<QueryResult<Set<ArrayList<Route>>>> of the
+   * shortest-distance path (an empty set if there is none); if the search
+   * was cut short the result says why and holds the shortest path found so
+   * far, if any
+   * @throws CityNotFoundException if any of the two cities are not found in the
+   * Airline system
+   */
+  public CompletableFuture<QueryResult<Set<ArrayList<Route>>>> shortestDistanceItineraryAsync(
+          String source, String destination, Instant deadline, long maxSettled)
+          throws CityNotFoundException {
+    return budgeted(source, destination, deadline, maxSettled, (graph, names, srcIn, desIn, budget) -> {
+      ShortestPaths sp = ShortestPaths.forThread().dijkstra(graph, srcIn, desIn, budget);
+      Set<ArrayList<Route>> SDSet = new HashSet<ArrayList<Route>>();
+      //reached is enough: a search cut short keeps the best path so far
+      if(sp.distTo(desIn) != Integer.MAX_VALUE){
+        ArrayList<Route> routes = new ArrayList<Route>();
+        for (int x = desIn; x != srcIn; x = sp.edgeTo(x)){
+          routes.add(new Route(names.get(sp.edgeTo(x)), names.get(x), sp.weightTo(x), sp.priceTo(x)));
+        }
+        Collections.reverse(routes);
+        SDSet.add(routes);
+      }
+      return SDSet;
+    });
+  }
+
+  //runs query on the current version of the network on the common pool,
+  //under a budget that the returned future can cancel
+  private <T> CompletableFuture<QueryResult<T>> budgeted(String source,
+          String destination, Instant deadline, long maxSettled,
+          BudgetedQuery<T> query) throws CityNotFoundException {
+    CompletableFuture<QueryResult<T>> future = new CompletableFuture<QueryResult<T>>();
+    VersionedGraph.Version graph;
+    List<String> names;
+    int srcIn, desIn;
+    boolean connected;
+    lock.readLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        future.complete(new QueryResult<T>(SearchBudget.Outcome.COMPLETE, null, 0));
+        return future;
+      }
+      srcIn = findIndex(source);
+      desIn = findIndex(destination);
+      if(srcIn == -1 || desIn == -1) throw new CityNotFoundException("city not found");
+      //adding a city or compacting replaces the name list, never changes it
+      graph = versions.current();
+      names = cityNames;
+      connected = components().connected(srcIn, desIn);
+    } finally {
+      lock.readLock().unlock();
+    }
+    long stop = deadline == null ? Long.MAX_VALUE
+      : System.nanoTime() + Duration.between(Instant.now(), deadline).toNanos();
+    //different components: settling the source alone finds nothing
+    SearchBudget budget = connected ? new SearchBudget(stop, maxSettled, future::isCancelled)
+      : new SearchBudget(Long.MAX_VALUE, 1, null);
+    ForkJoinPool.commonPool().execute(() -> {
+      try {
+        T value = query.run(graph, names, srcIn, desIn, budget);
+        future.complete(new QueryResult<T>(connected ? budget.outcome() : SearchBudget.Outcome.COMPLETE,
+          value, budget.settled()));
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+    });
+    return future;
+  }
+
+  private interface BudgetedQuery<T> {
+    T run(VersionedGraph.Version graph, List<String> names, int source,
+          int destination, SearchBudget budget);
+  }
+
+  /**
+   * lists every fewest-stops path between two cities, one at a time; the
+   * paths are built as the stream is consumed, so callers can page through
+   * thousands of them
+   * @param source the String source city name
+   * @param destination the String destination city name
+   * @param limit the maximum number of paths, or a negative number for all
+   * @return a (possibly empty) Stream<ArrayList<String>> of fewest-stops
+   * paths, each including the source and destination city names
+   * @throws CityNotFoundException if any of the two cities are not found in the
+   * Airline system
+   */
+  public Stream<ArrayList<String>> fewestStopsItineraries(String source,
+          String destination, long limit) throws CityNotFoundException {
+    VersionedGraph.Version graph;
+    int srcIn, desIn;
+    List<String> names;
+    lock.readLock().lock();
+    try {
+      graph = tiedPaths(source, destination);
+      if(graph == null) return Stream.empty();
+      srcIn = findIndex(source);
+      desIn = findIndex(destination);
+      //names are replaced, never changed, so the search needs no lock
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+    TiedPaths paths = new TiedPaths(graph, srcIn, desIn, true);
+    Stream<ArrayList<String>> stream = StreamSupport.stream(paths.spliterator(), false)
+      .map(route -> {
+        ArrayList<String> stops = new ArrayList<String>(route.length + 1);
+        stops.add(names.get(srcIn));
+        for (int i = 0; i < route.length; i++) {
+          int to = i + 1 < route.length ? paths.from(route[i + 1]) : desIn;
+          stops.add(names.get(to));
+        }
+        return stops;
+      });
+    return limit < 0 ? stream : stream.limit(limit);
+  }
+
+  /**
+   * lists every shortest-distance path between two cities, one at a time;
+   * the paths are built as the stream is consumed
+   * @param source the String source city name
+   * @param destination the String destination city name
+   * @param limit the maximum number of paths, or a negative number for all
+   * @return a (possibly empty) Stream<ArrayList<Route>> of shortest-distance
+   * paths, each starting with a Route out of source and ending with a Route
+   * into destination
+   * @throws CityNotFoundException if any of the two cities are not found in the
+   * Airline system
+   */
+  public Stream<ArrayList<Route>> shortestDistanceItineraries(String source,
+          String destination, long limit) throws CityNotFoundException {
+    VersionedGraph.Version graph;
+    int srcIn, desIn;
+    List<String> names;
+    lock.readLock().lock();
+    try {
+      graph = tiedPaths(source, destination);
+      if(graph == null) return Stream.empty();
+      srcIn = findIndex(source);
+      desIn = findIndex(destination);
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+    TiedPaths paths = new TiedPaths(graph, srcIn, desIn, false);
+    Stream<ArrayList<Route>> stream = StreamSupport.stream(paths.spliterator(), false)
+      .map(route -> {
+        ArrayList<Route> routes = new ArrayList<Route>(route.length);
+        for (int i = 0; i < route.length; i++) {
+          int to = i + 1 < route.length ? paths.from(route[i + 1]) : desIn;
+          routes.add(new Route(names.get(paths.from(route[i])), names.get(to),
+            paths.weight(route[i]), paths.price(route[i])));
+        }
+        return routes;
+      });
+    return limit < 0 ? stream : stream.limit(limit);
+  }
 
+  //the version to enumerate tied paths between two cities in, or null if
+  //there is no route; call with the read lock held
+  private VersionedGraph.Version tiedPaths(String source, String destination)
+          throws CityNotFoundException {
     if(G == null){
       System.out.println("Please import a graph first (option 1).");
-      System.out.print("Please press ENTER to continue ...");
-      scan.nextLine();
-    } else {
-      int srcIn = findIndex(source);
-      int tranIn= findIndex(transit);
-      int desIn = findIndex(destination);
+      return null;
+    }
+    int srcIn = findIndex(source);
+    int desIn = findIndex(destination);
+    if(srcIn == -1 || desIn == -1) throw new CityNotFoundException("city not found");
+    if(!components().connected(srcIn, desIn)) return null;
+    return versions.current();
+  }
+
+  /**
+   * finds the cheapest (or shortest) itinerary between two cities that keeps
+   * within a number of stops, a total price and a total distance, e.g.
+   * "cheapest with at most 2 stops" or "shortest under $400"
+   * @param source the String source city name
+   * @param destination the String destination city name
+   * @param maxStops the maximum number of intermediate cities, or a negative
+   * number for no limit
+   * @param maxPrice the maximum total price in dollars
+   * @param maxDistance the maximum total distance in miles
+   * @param cheapest true for the cheapest itinerary, false for the shortest
+   * @return a (possibly empty) ArrayList<Route> of the routes to take in
+   * order; empty if no itinerary meets the limits
+   * @throws CityNotFoundException if any of the two cities are not found in the
+   * Airline system
+   */
+  public ArrayList<Route> constrainedItinerary(String source, String destination,
+          int maxStops, double maxPrice, int maxDistance, boolean cheapest)
+          throws CityNotFoundException {
+    ArrayList<Route> routes = new ArrayList<Route>();
+    VersionedGraph.Version graph;
+    List<String> names;
+    int srcIn, desIn;
+    lock.readLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        return routes;
+      }
+      srcIn = findIndex(source);
+      desIn = findIndex(destination);
+      if(srcIn == -1 || desIn == -1) throw new CityNotFoundException("city not found");
+      if(!components().connected(srcIn, desIn) || maxPrice < 0 || maxDistance < 0){
+        System.out.println("No itinerary from " + source + " to " + destination + " within the given limits");
+        return routes;
+      }
+      graph = versions.current();
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    ConstrainedSearch engine = constrained(graph);
+    int[] path = engine.search(srcIn, desIn, maxStops, maxPrice, maxDistance, cheapest);
+    if(path == null){
+      System.out.println("No itinerary from " + source + " to " + destination + " within the given limits");
+      return routes;
+    }
+    for(int k : path){
+      routes.add(new Route(names.get(engine.from(k)), names.get(engine.to(k)),
+        engine.weight(k), engine.price(k)));
+    }
+    return routes;
+  }
+
+  /**
+   * lists every city that can be reached from a city within a total
+   * distance, nearest first, e.g. "everywhere within 800 miles of Erie".
+   * Cities are found as the stream is consumed and the search never looks
+   * beyond the limit; close the stream if it is not read to the end.
+   * @param city the String origin city name
+   * @param maxDistance the maximum total distance in miles
+   * @return a (possibly empty) Stream<Map.Entry<String, Integer>> of city
+   * names and their shortest distance from city, starting with city itself
+   * @throws CityNotFoundException if the city is not found in the Airline
+   * system
+   */
+  public Stream<Map.Entry<String, Integer>> citiesWithinDistance(String city,
+          int maxDistance) throws CityNotFoundException {
+    return withinBudget(city, maxDistance, false)
+      .map(e -> new AbstractMap.SimpleImmutableEntry<String, Integer>(e.getKey(), e.getValue().intValue()));
+  }
+
+  /**
+   * lists every city that can be reached from a city within a total price,
+   * cheapest first, e.g. "everything under $300 from Pittsburgh". Cities are
+   * found as the stream is consumed; close the stream if it is not read to
+   * the end.
+   * @param city the String origin city name
+   * @param maxPrice the maximum total price in dollars
+   * @return a (possibly empty) Stream<Map.Entry<String, Double>> of city
+   * names and their lowest total price from city, starting with city itself
+   * @throws CityNotFoundException if the city is not found in the Airline
+   * system
+   */
+  public Stream<Map.Entry<String, Double>> citiesWithinPrice(String city,
+          double maxPrice) throws CityNotFoundException {
+    return withinBudget(city, maxPrice, true);
+  }
 
+  /**
+   * finds the cities within a distance or price budget of many origins at
+   * once, searching the origins in parallel
+   * @param origins the origin city names
+   * @param budget the maximum total distance in miles or price in dollars
+   * @param byPrice true for a price budget, false for a distance budget
+   * @param visitor called once for every (origin, city, cost) found; it is
+   * called from several threads at once
+   * @throws CityNotFoundException if any origin is not found in the Airline
+   * system
+   */
+  public void citiesWithinBudget(Collection<String> origins, double budget,
+          boolean byPrice, BudgetVisitor visitor) throws CityNotFoundException {
+    int[] srcs = new int[origins.size()];
+    VersionedGraph.Version graph;
+    List<String> names;
+    lock.readLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        return;
+      }
+      int i = 0;
+      for(String city : origins){
+        srcs[i] = findIndex(city);
+        if(srcs[i++] == -1) throw new CityNotFoundException("city not found");
+      }
+      graph = versions.current();
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+    Isochrone engine = isochrone(graph);
+    //the engine is a snapshot, so the search itself needs no lock
+    engine.searchAll(srcs, budget, byPrice, (origin, city, cost) ->
+      visitor.visit(names.get(origin), names.get(city), cost), ForkJoinPool.commonPool());
+  }
 
-      //ajusted from lab9
-      Stack<Integer> cities = new Stack<>();
-      cities.push(srcIn);
-      cities.push(tranIn);
+  /**
+   * Callback for citiesWithinBudget.
+   */
+  public interface BudgetVisitor {
+    public void visit(String origin, String city, double cost);
+  }
 
-      int vertices = 0;
+  private Stream<Map.Entry<String, Double>> withinBudget(String city, double budget,
+          boolean byPrice) throws CityNotFoundException {
+    VersionedGraph.Version graph;
+    List<String> names;
+    int cityIn;
+    lock.readLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        return Stream.empty();
+      }
+      cityIn = findIndex(city);
+      if(cityIn == -1) throw new CityNotFoundException("city not found");
+      graph = versions.current();
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+    Isochrone.Search search = isochrone(graph).search(cityIn, budget, byPrice);
+    Spliterator<Map.Entry<String, Double>> cities =
+      new Spliterators.AbstractSpliterator<Map.Entry<String, Double>>(Long.MAX_VALUE,
+          Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL) {
+        public boolean tryAdvance(java.util.function.Consumer<? super Map.Entry<String, Double>> action) {
+          int v = search.next();
+          if(v == -1) return false;
+          action.accept(new AbstractMap.SimpleImmutableEntry<String, Double>(names.get(v), search.cost()));
+          return true;
+        }
+      };
+    return StreamSupport.stream(cities, false).onClose(search::close);
+  }
 
-      Stack<Integer> path = new Stack<>();
-      while (!cities.isEmpty()){
-        //int newSrc= tranIn;
-        int newSrc= cities.pop();
+  /**
+   * lists the routes priced within a range, e.g. "every route between $100
+   * and $200", cheapest first; with a limit this gives the cheapest or
+   * dearest N routes. Routes are looked up in a sorted index and read as the
+   * stream is consumed, so only the routes that are read are visited. The
+   * stream lists the routes as they were when it was made; routes added,
+   * changed or removed afterwards do not show in it.
+   * @param minPrice the lowest price in dollars
+   * @param maxPrice the highest price in dollars
+   * @param descending true to list the dearest routes first
+   * @return a (possibly empty) Stream<Route> with one Route per route, in
+   * either direction
+   */
+  public Stream<Route> routesByPrice(double minPrice, double maxPrice,
+          boolean descending) {
+    lock.readLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        return Stream.empty();
+      }
+      return routes(ranges.byPrice(minPrice, maxPrice, descending));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
 
-        G.dijkstras(newSrc, desIn);
+  /**
+   * lists the routes whose distance is within a range, shortest first, e.g.
+   * "every route longer than 1,500 miles" or, with a limit, "the ten longest
+   * routes". To order such routes by price instead, filter routesByPrice by
+   * distance; both streams are lazy and list the routes as they were when
+   * they were made.
+   * @param minDistance the shortest distance in miles
+   * @param maxDistance the longest distance in miles
+   * @param descending true to list the longest routes first
+   * @return a (possibly empty) Stream<Route> with one Route per route, in
+   * either direction
+   */
+  public Stream<Route> routesByDistance(int minDistance, int maxDistance,
+          boolean descending) {
+    lock.readLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        return Stream.empty();
+      }
+      return routes(ranges.byDistance(minDistance, maxDistance, descending));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
 
-        if(!G.marked[desIn]){
-          return null;
-        } else {
-          for (int x = desIn; x != newSrc; x = G.edgeTo[x]){
-            path.push(x);
-            vertices++;
-          }
-          desIn = newSrc;
+  private Stream<Route> routes(RouteRangeIndex.Cursor cursor) {
+    List<String> names = cityNames;
+    Spliterator<Route> routes = new Spliterators.AbstractSpliterator<Route>(Long.MAX_VALUE,
+        Spliterator.ORDERED | Spliterator.NONNULL) {
+      public boolean tryAdvance(java.util.function.Consumer<? super Route> action) {
+        if(!cursor.next()) return false;
+        action.accept(new Route(names.get(cursor.from()), names.get(cursor.to()),
+          cursor.weight(), cursor.price()));
+        return true;
+      }
+    };
+    return StreamSupport.stream(routes, false);
+  }
+
+  //the component labels, rebuilt from the current version after removals
+  private synchronized ComponentIndex components() {
+    if(components == null)
+      components = new ComponentIndex(versions.current());
+    return components;
+  }
+
+  //the constrained engine snapshots the routes of one version, rebuild it
+  //for any other; it is built outside the monitor
+  private ConstrainedSearch constrained(VersionedGraph.Version graph) {
+    synchronized (this) {
+      if(constrainedEngine != null && constrainedGraph == graph) return constrainedEngine;
+    }
+    ConstrainedSearch engine = new ConstrainedSearch(graph);
+    synchronized (this) {
+      constrainedEngine = engine;
+      constrainedGraph = graph;
+    }
+    return engine;
+  }
+
+  //the isochrone engine snapshots the routes of one version, rebuild it for
+  //any other; it is built outside the monitor
+  private Isochrone isochrone(VersionedGraph.Version graph) {
+    synchronized (this) {
+      if(isochrone != null && isochroneGraph == graph) return isochrone;
+    }
+    Isochrone engine = new Isochrone(graph);
+    synchronized (this) {
+      isochrone = engine;
+      isochroneGraph = graph;
+    }
+    return engine;
+  }
+
+  /**
+   * finds the transfer hubs of the network and writes, for every city, its
+   * betweenness, its closeness and whether it is an articulation point (a
+   * city whose loss splits its region) to a file. Progress is printed as
+   * the analysis runs.
+   * @param fileName the String file name to write
+   * @param samples the number of cities to start searches from for an
+   * approximate result on a large network, or 0 to use every city
+   * @return true if the analysis was written
+   */
+  public boolean analyzeHubs(String fileName, int samples) {
+    VersionedGraph.Version graph;
+    List<String> names;
+    lock.readLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        return false;
+      }
+      graph = versions.current();
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+    HubAnalytics hubs = new HubAnalytics(graph);
+
+    int[] shown = {0};
+    hubs.run(samples, System.nanoTime(), ForkJoinPool.commonPool(), (done, total) -> {
+      int percent = (int) (100L * done / total);
+      synchronized (shown) {
+        if(percent >= shown[0] + 10 || done == total && shown[0] < 100){
+          shown[0] = percent;
+          System.out.println("Analyzed " + done + " of " + total + " cities (" + percent + "%)");
         }
       }
+    });
+    try {
+      hubs.write(fileName, liveNames(graph, names));
+
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+    System.out.println("Hub analysis written to " + fileName);
+    return true;
+  }
+
+  /**
+   * calls visitor once for every route of the network, in one direction
+   * only, as they were when it was called; routes changed while it runs
+   * are not seen
+   * @param visitor called with the two city names, the distance in miles
+   * and the price in dollars of every route
+   */
+  public void forEachRoute(RouteVisitor visitor) {
+    VersionedGraph.Version graph;
+    List<String> names;
+    lock.readLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        return;
+      }
+      graph = versions.current();
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+    RouteExport.forEachRoute(graph, (from, to, weight, price) ->
+      visitor.visit(names.get(from), names.get(to), weight, price));
+  }
+
+  /**
+   * Callback for forEachRoute.
+   */
+  public interface RouteVisitor {
+    public void visit(String source, String destination, int distance, double price);
+  }
+
+  /**
+   * writes every route of the network to a file, once per route, as they
+   * were when it was called
+   * @param fileName the String file name
+   * @param format CSV, ROUTES (the format loadRoutes reads) or BINARY (a
+   * snapshot OffHeapGraph.open maps back in)
+   * @return true if the routes were written
+   */
+  public boolean exportRoutes(String fileName, RouteExport.Format format) {
+    VersionedGraph.Version graph;
+    List<String> names;
+    lock.readLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        return false;
+      }
+      graph = versions.current();
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+    try {
+      RouteExport.write(graph, liveNames(graph, names), format, new File(fileName));
+      return true;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
 
-      ArrayList<Route> routes = new ArrayList<Route>(vertices);
-
-      int prevVertex = srcIn;
-      while(!path.empty()){
-        int v = path.pop();
-        //traver the adj list of that city
-        for (WeightedDirectedEdge e : G.adj[prevVertex]) {
-          if (e.to == v) {
-            routes.add(new Route(cityNames.get(e.from), cityNames.get(e.to), e.weight, e.price ));
-            break;
-          }
-        }
-        prevVertex = v;
-      }
-      SDSet.add(routes);
+  //the city names of graph, null for removed cities
+  private static List<String> liveNames(VersionedGraph.Version graph, List<String> cityNames) {
+    int n = graph.vertexCount();
+    ArrayList<String> names = new ArrayList<String>(cityNames.subList(0, n));
+    for (int v = 0; v < n; v++) {
+      if(graph.isRemoved(v)) names.set(v, null);
     }
-    return SDSet;
+    return names;
   }
 
   /**
@@ -279,33 +1271,45 @@ final public class AirlineSystem implements AirlineInterface {
    * of Route objects representing the MST edges.
    */
   public Set<Set<Route>> getMSTs(){
+    VersionedGraph.Version graph;
+    List<String> names;
+    lock.readLock().lock();
+    try {
+      graph = G == null ? null : versions.current();
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+    return kruskal(graph, names);
+  }
+
+  private Set<Set<Route>> kruskal(VersionedGraph.Version graph, List<String> names){
 
     Set<Set<Route>> MSTSet = new HashSet<Set<Route>>();
     Set<Route> routeSet = new HashSet<Route>();
 
-    if(G==null)
+    if(graph==null)
     {
       System.out.println("Please import a graph first (option 1).");
       System.out.print("Please press ENTER to continue ...");
       scan.nextLine();
     }
     else {
-      PriorityQueue quene = new PriorityQueue<WeightedDirectedEdge>();  // priorityQueue for store the path
-      UF uf = new UF(G.v);   // union-find data structure for checking cycle and connection
+      PriorityQueue<WeightedDirectedEdge> quene = new PriorityQueue<WeightedDirectedEdge>();  // priorityQueue for store the path
+      UF uf = new UF(graph.vertexCount());   // union-find data structure for checking cycle and connection
 
       //Kruskal
-      for (int i = 0; i < G.v; i++)
+      for (int i = 0; i < graph.vertexCount(); i++)
       {
-        for (WeightedDirectedEdge s : G.adj(i)) {
-          quene.add(s);    // add all the paths into priority queue
-        }
+        graph.forEachEdge(i, (from, to, weight, price) ->
+          quene.add(new WeightedDirectedEdge(from, to, weight, price)));    // add all the paths into priority queue
       }
-      while (!quene.isEmpty() && routeSet.size() < G.v - 1) {
-        WeightedDirectedEdge current = (WeightedDirectedEdge) quene.poll();
+      while (!quene.isEmpty() && routeSet.size() < graph.vertexCount() - 1) {
+        WeightedDirectedEdge current = quene.poll();
         if (!uf.connected(current))  //check if cycles
         {
           uf.union(current);
-          Route r = new Route(cityNames.get(current.from), cityNames.get(current.to), current.weight, current.price );
+          Route r = new Route(names.get(current.from), names.get(current.to), current.weight, current.price );
           routeSet.add(r);    //  add it into routeSet
         }
       }
@@ -320,10 +1324,27 @@ final public class AirlineSystem implements AirlineInterface {
    * @return true if city added successfully and false if the city already exists
    */
   public boolean addCity(String city){
+    lock.writeLock().lock();
+    try {
+      VersionedGraph.Batch batch = versions.begin();
+      if(!addCity(city, batch)) return false;
+      batch.commit();
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
 
-    if(cityNames.contains(city))
+  //adds a city to the live network and records it in batch
+  private boolean addCity(String city, VersionedGraph.Batch batch){
+    if(cityIndex.indexOf(city) != -1)
       return false;
-    cityNames.add(city);  //the size increased automatically
+    //queries may still read the old list after the lock, so copy it
+    ArrayList<String> names = new ArrayList<String>(cityNames.size() + 1);
+    names.addAll(cityNames);
+    names.add(city);
+    cityNames = names;
+    cityIndex.add(cityNames);
     //a list with NEW SIZE
     LinkedList<WeightedDirectedEdge>[] list = (LinkedList<WeightedDirectedEdge>[]) new LinkedList[cityNames.size()];
     //copy
@@ -334,6 +1355,10 @@ final public class AirlineSystem implements AirlineInterface {
     list[G.v] = new LinkedList<WeightedDirectedEdge>();
     G.adj = list;
     G.v++;
+    dropPartitions(true);
+    if(components != null) components.addVertex();
+    bfsEngine = null;
+    batch.addCity();
     return true;
   }
 
@@ -350,21 +1375,40 @@ final public class AirlineSystem implements AirlineInterface {
    */
   public boolean addRoute(String source, String destination, int distance,
                           double price) throws CityNotFoundException {
-    Set<Route> directRoutes = retrieveDirectRoutesFrom(source);
-    //if(DirectRoutes.contains(destination)) return false;
-    for(Route r : directRoutes){
-      if(r.destination.equals(destination)){
-        //route exists
-        return false;
-      }
+    lock.writeLock().lock();
+    try {
+      VersionedGraph.Batch batch = versions.begin();
+      if(!addRoute(source, destination, distance, price, batch)) return false;
+      batch.commit();
+      return true;
+    } finally {
+      lock.writeLock().unlock();
     }
+  }
 
+  //adds a route to the live network and records it in batch
+  private boolean addRoute(String source, String destination, int distance,
+                           double price, VersionedGraph.Batch batch)
+          throws CityNotFoundException {
     int srcIn = findIndex(source);
     int desIn = findIndex(destination);
+    if(srcIn == -1 || desIn == -1) throw new CityNotFoundException("City not found");
+    //the live lists, which already hold the changes of a batch not yet committed
+    for(WeightedDirectedEdge e : G.adj(srcIn)){
+      if(e.to == desIn){
+        //route exists
+        return false;
+      }
+    }
 
     G.addEdge(new WeightedDirectedEdge(srcIn, desIn, distance, price));
     //reversed
     G.addEdge(new WeightedDirectedEdge(desIn, srcIn, distance, price));
+    if(components != null) components.union(srcIn, desIn);
+    ranges.add(srcIn, desIn, distance, price);
+    bfsEngine = null;
+    dropPartitions(true);
+    batch.addRoute(srcIn, desIn, distance, price).addRoute(desIn, srcIn, distance, price);
     return true;
   }
 
@@ -382,55 +1426,591 @@ final public class AirlineSystem implements AirlineInterface {
    */
   public boolean updateRoute(String source, String destination, int distance,
                              double price) throws CityNotFoundException {
+    lock.writeLock().lock();
+    try {
+      VersionedGraph.Batch batch = versions.begin();
+      if(!updateRoute(source, destination, distance, price, batch)) return false;
+      batch.commit();
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
 
-    if(!cityNames.contains(source) || !cityNames.contains(destination)) throw new CityNotFoundException("City not found");
+  //updates a route of the live network and records it in batch
+  private boolean updateRoute(String source, String destination, int distance,
+                              double price, VersionedGraph.Batch batch)
+          throws CityNotFoundException {
+    if(findIndex(source) == -1 || findIndex(destination) == -1) throw new CityNotFoundException("City not found");
     int srcIn = findIndex(source);
     int desIn = findIndex(destination);
 
     //src to des
-    for (WeightedDirectedEdge e : G.adj[srcIn]) {
-      if(cityNames.get(e.to).equals(destination)){
-        e.weight = distance;
-        e.price = price;
+    WeightedDirectedEdge there = null;
+    for (WeightedDirectedEdge e : G.adj(srcIn)) {
+      if(e.to == desIn){
+        there = e;
         break;
       }
     }
 
     //des to src
-    for (WeightedDirectedEdge e : G.adj[desIn]) {
-      if(cityNames.get(e.to).equals(source)){
-        e.weight = distance;
-        e.price = price;
-        return true;
+    WeightedDirectedEdge back = null;
+    for (WeightedDirectedEdge e : G.adj(desIn)) {
+      if(e.to == srcIn){
+        back = e;
+        break;
       }
     }
-    return false;
+    if(there == null || back == null) return false;
+
+    //edges are never changed in place, so a reader of the lists sees
+    //either the old or the new route, never half of each
+    G.replaceEdge(there, new WeightedDirectedEdge(srcIn, desIn, distance, price));
+    if(back != there)
+      G.replaceEdge(back, new WeightedDirectedEdge(desIn, srcIn, distance, price));
+    dropPartitions(true);
+    //both directions change in one version, so versioned readers never see half
+    batch.updateRoute(srcIn, desIn, distance, price).updateRoute(desIn, srcIn, distance, price);
+    ranges.update(srcIn, desIn, distance, price);
+    return true;
   }
 
-  private int findIndex(String s) {
-    for (int i = 0; i < G.v; i++) {
-      if (cityNames.get(i).equals(s))
-        return i;
+  /**
+   * removes the direct route between two cities, in both directions; if
+   * the routes file listed the two cities more than once, every one of
+   * those routes is removed
+   * @param source the String source city name
+   * @param destination the String destination city name
+   * @return true if the route was removed and false if there is no route
+   * between the two cities
+   * @throws CityNotFoundException if any of the two cities are not found in the
+   * Airline system
+   */
+  public boolean removeRoute(String source, String destination)
+          throws CityNotFoundException {
+    lock.writeLock().lock();
+    try {
+      VersionedGraph.Batch batch = versions.begin();
+      if(!removeRoute(source, destination, batch)) return false;
+      batch.commit();
+      afterRemoval();
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  //removes a route from the live network and records it in batch
+  private boolean removeRoute(String source, String destination, VersionedGraph.Batch batch)
+          throws CityNotFoundException {
+    int srcIn = findIndex(source);
+    int desIn = findIndex(destination);
+    if(srcIn == -1 || desIn == -1) throw new CityNotFoundException("City not found");
+    if(!removeEdges(srcIn, desIn)) return false;
+    batch.removeRoute(srcIn, desIn).removeRoute(desIn, srcIn);
+    return true;
+  }
+
+  /**
+   * removes a city and every route to and from it
+   * @param city the String city name
+   * @return true if the city was removed and false if there is no such city
+   */
+  public boolean removeCity(String city) {
+    lock.writeLock().lock();
+    try {
+      VersionedGraph.Batch batch = versions.begin();
+      if(!removeCity(city, batch)) return false;
+      batch.commit();
+      afterRemoval();
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  //removes a city and its routes from the live network and records them in
+  //batch; the city is tombstoned once and its routes are skipped from then on
+  private boolean removeCity(String city, VersionedGraph.Batch batch) {
+    int cityIn = findIndex(city);
+    if(cityIn == -1) return false;
+    for (WeightedDirectedEdge e : G.adj(cityIn)) {
+      ranges.remove(cityIn, e.to);
+    }
+    G.removeVertex(cityIn);
+    batch.removeCity(cityIn);
+    cityIndex.remove(cityIn);
+    //its flights are skipped until compaction drops them
+    if(timetable != null && cityIn < timetable.cities()) timetable.removeCity(cityIn);
+    return true;
+  }
+
+  //tombstone the live routes between two cities, both directions
+  private boolean removeEdges(int a, int b) {
+    boolean found = false;
+    ranges.remove(a, b);
+    for (WeightedDirectedEdge e : G.adj(a)) {
+      if(e.to == b){
+        G.removeEdge(e);
+        found = true;
+      }
+    }
+    for (WeightedDirectedEdge e : G.adj(b)) {
+      if(e.to == a) G.removeEdge(e);
+    }
+    return found;
+  }
+
+  //union-find cannot split components, so the labels are dropped and
+  //rebuilt by the next query that needs them
+  private void afterRemoval() {
+    components = null;
+    bfsEngine = null;
+    dropPartitions(true);
+    int live = G.v + G.e;
+    if(!compactionQueued && G.tombstones() >= COMPACT_MIN
+       && G.tombstones() * COMPACT_RATIO > live){
+      compactionQueued = true;
+      maintenance().execute(this::compact);
+    }
+  }
+
+  //rebuild the network without tombstones, renumbering the cities. The copy
+  //is made while queries keep running; only the final swap blocks them.
+  //Another compaction can be queued once this one is over, however it ends.
+  private void compact() {
+    try {
+      while(true){
+        long version;
+        int[] ids;
+        ArrayList<String> names = new ArrayList<String>();
+        Digraph compacted;
+        ConnectionScan flights;
+        lock.readLock().lock();
+        try {
+          if(G == null || G.tombstones() == 0) return;
+          version = versions.current().number();
+          ids = new int[G.v];
+          for (int v = 0; v < G.v; v++) {
+            ids[v] = G.isRemoved(v) ? -1 : names.size();
+            if(ids[v] != -1) names.add(cityNames.get(v));
+          }
+          compacted = new Digraph(names.size());
+          for (int v = 0; v < G.v; v++) {
+            for (WeightedDirectedEdge e : G.adj(v)) {
+              compacted.addEdge(new WeightedDirectedEdge(ids[e.from], ids[e.to], e.weight, e.price));
+            }
+          }
+          flights = timetable == null ? null : remap(timetable, ids, names.size());
+        } finally {
+          lock.readLock().unlock();
+        }
+        CityIndex index = new CityIndex(names);
+        ComponentIndex labels = new ComponentIndex(compacted);
+        VersionedGraph history = new VersionedGraph(compacted, VERSIONS_KEPT, version + 1);
+        RouteRangeIndex sorted = new RouteRangeIndex(compacted);
+
+        lock.writeLock().lock();
+        try {
+          //changed since the copy was made, copy again
+          if(versions.current().number() != version) continue;
+          int before = G.v;
+          dropPartitions(true);
+          cityNames = names;
+          G = compacted;
+          cityIndex = index;
+          components = labels;
+          versions = history;
+          ranges = sorted;
+          timetable = flights;
+          bfsEngine = null;
+          constrainedEngine = null;
+          isochrone = null;
+          System.out.println("Network compacted: " + (before - names.size()) + " removed cities dropped.");
+          return;
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+    } finally {
+      compactionQueued = false;
+    }
+  }
+
+  //the flights of a timetable with city i renamed ids[i]; flights of
+  //cities mapped to -1 are dropped
+  private static ConnectionScan remap(ConnectionScan t, int[] ids, int n) {
+    int m = 0;
+    int[] from = new int[t.size()], to = new int[t.size()];
+    int[] dep = new int[t.size()], arr = new int[t.size()];
+    for (int c = 0; c < t.size(); c++) {
+      if(ids[t.from(c)] == -1 || ids[t.to(c)] == -1) continue;
+      from[m] = ids[t.from(c)];
+      to[m] = ids[t.to(c)];
+      dep[m] = t.departure(c);
+      arr[m++] = t.arrival(c);
+    }
+    return new ConnectionScan(n, Arrays.copyOf(from, m), Arrays.copyOf(to, m),
+      Arrays.copyOf(dep, m), Arrays.copyOf(arr, m));
+  }
+
+  /**
+   * returns the number of the latest version of the network; it goes up by
+   * one with every added, updated or removed city or route, and when
+   * removed cities are compacted away. Compaction renumbers the cities, so
+   * it starts a new history: the versions before it can no longer be
+   * queried.
+   * @return the version number, or 0 if no routes have been loaded
+   */
+  public long graphVersion() {
+    return versions == null ? 0 : versions.current().number();
+  }
+
+  /**
+   * returns the set of direct routes out of a given city as they were in an
+   * earlier version of the network
+   * @param city the String city name
+   * @param version the version number, see graphVersion()
+   * @return a (possibly empty) Set<Route> of Route objects, or null if that
+   * version is no longer kept, e.g. because a compaction came after it
+   * @throws CityNotFoundException if the city is not found in the Airline
+   * system
+   */
+  public Set<Route> retrieveDirectRoutesFrom(String city, long version)
+          throws CityNotFoundException {
+    int cityIn;
+    VersionedGraph history;
+    List<String> names;
+    lock.readLock().lock();
+    try {
+      cityIn = findIndex(city);
+      if(cityIn == -1) throw new CityNotFoundException("city not found");
+      history = versions;
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+    VersionedGraph.Version graph = pin(history, version);
+    if(graph == null) return null;
+    try {
+      Set<Route> directRoutes = new HashSet<Route>();
+      if(cityIn < graph.vertexCount()){
+        graph.forEachEdge(cityIn, (from, to, weight, price) ->
+          directRoutes.add(new Route(names.get(from), names.get(to), weight, price)));
+      }
+      return directRoutes;
+    } finally {
+      history.release(graph);
+    }
+  }
+
+  /**
+   * finds a shortest distance path between two cities as it was in an
+   * earlier version of the network, with the distances and fares of that
+   * version
+   * @param source the String source city name
+   * @param destination the String destination city name
+   * @param version the version number, see graphVersion()
+   * @return a (possibly empty) Set<ArrayList<Route>> of shortest-distance
+   * paths, or null if that version is no longer kept, e.g. because a
+   * compaction came after it
+   * @throws CityNotFoundException if any of the two cities are not found in the
+   * Airline system
+   */
+  public Set<ArrayList<Route>> shortestDistanceItinerary(String source,
+          String destination, long version) throws CityNotFoundException {
+    int srcIn, desIn;
+    VersionedGraph history;
+    List<String> names;
+    lock.readLock().lock();
+    try {
+      srcIn = findIndex(source);
+      desIn = findIndex(destination);
+      if(srcIn == -1 || desIn == -1) throw new CityNotFoundException("city not found");
+      history = versions;
+      names = cityNames;
+    } finally {
+      lock.readLock().unlock();
+    }
+    VersionedGraph.Version graph = pin(history, version);
+    if(graph == null) return null;
+    try {
+      Set<ArrayList<Route>> SDSet = new HashSet<ArrayList<Route>>();
+      if(srcIn >= graph.vertexCount() || desIn >= graph.vertexCount()) return SDSet;
+      ShortestPaths sp = ShortestPaths.forThread().dijkstra(graph, srcIn, desIn);
+      if(!sp.hasPathTo(desIn)) return SDSet;
+
+      ArrayList<Route> routes = new ArrayList<Route>();
+      for (int x = desIn; x != srcIn; x = sp.edgeTo(x)){
+        routes.add(new Route(names.get(sp.edgeTo(x)), names.get(x), sp.weightTo(x), sp.priceTo(x)));
+      }
+      Collections.reverse(routes);
+      SDSet.add(routes);
+      return SDSet;
+    } finally {
+      history.release(graph);
+    }
+  }
+
+  //pins an earlier version, or says why it cannot be read
+  private static VersionedGraph.Version pin(VersionedGraph history, long version) {
+    if(history == null) return null;
+    VersionedGraph.Version graph = history.pin(version);
+    if(graph == null){
+      if(version > history.current().number())
+        System.out.println("Version " + version + " does not exist yet");
+      else
+        System.out.println("Version " + version + " is no longer kept; the oldest is "
+          + history.oldest() + " (compaction drops the versions before it)");
+    }
+    return graph;
+  }
+
+  /**
+   * finds the city names that start with a prefix, for typeahead
+   * @param prefix the String prefix typed so far (case is ignored)
+   * @param matches the array to fill with matching names in alphabetical
+   * order; its length is the maximum number of matches returned
+   * @return the number of names written into matches
+   */
+  public int completeCityName(String prefix, String[] matches) {
+    lock.readLock().lock();
+    try {
+      if(G == null) return 0;
+      return cityIndex.complete(prefix, matches);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * checks whether there is any route, direct or with stops, between two
+   * cities without running a search
+   * @param source the String source city name
+   * @param destination the String destination city name
+   * @return true if destination can be reached from source
+   * @throws CityNotFoundException if any of the two cities are not found in the
+   * Airline system
+   */
+  public boolean isReachable(String source, String destination)
+          throws CityNotFoundException {
+    lock.readLock().lock();
+    try {
+      if(G == null) return false;
+      int srcIn = findIndex(source);
+      int desIn = findIndex(destination);
+      if(srcIn == -1 || desIn == -1) throw new CityNotFoundException("city not found");
+      return components().connected(srcIn, desIn);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * splits the network into regions served by separate workers; cross-region
+   * shortest-distance queries are then answered through an overlay graph of
+   * the cities on region borders. The workers are started without blocking
+   * queries or changes. After a change to the network they are restarted in
+   * the background on the new network, and queries are answered locally
+   * until they are back.
+   * @param regions the number of regions
+   * @param separateProcesses true to run every worker as its own process on
+   * this machine, false to run them on threads of this one
+   * @return true if all workers started
+   */
+  public boolean partitionRegions(int regions, boolean separateProcesses) {
+    if(regions <= 0) throw new IllegalArgumentException("regions must be positive");
+    lock.writeLock().lock();
+    try {
+      if(G == null){
+        System.out.println("Please import a graph first (option 1).");
+        return false;
+      }
+      dropPartitions(false);
+      partitionCount = regions;
+      partitionProcesses = separateProcesses;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return startPartitions();
+  }
+
+  /**
+   * stops the region workers started by partitionRegions, if any
+   */
+  public void stopPartitions() {
+    PartitionCoordinator old;
+    lock.writeLock().lock();
+    try {
+      old = partitions;
+      partitions = null;
+      partitionGraph = null;
+      partitionCount = 0;
+    } finally {
+      lock.writeLock().unlock();
     }
-    // not found
-    return -1;
+    if(old != null) old.shutdown();
   }
 
+  //the network changed: retire the region workers, shutting them down in
+  //the background, and with restart queue new ones for the new network.
+  //Call with the write lock held; restarts asked for while one is queued
+  //are served by it.
+  private void dropPartitions(boolean restart) {
+    if(partitions != null){
+      PartitionCoordinator old = partitions;
+      partitions = null;
+      partitionGraph = null;
+      maintenance().execute(old::shutdown);
+      if(restart && partitionCount > 0)
+        System.out.println("Network changed, restarting the region workers in the background.");
+    }
+    if(!restart){
+      partitionCount = 0;
+    } else if(partitionCount > 0 && !repartitionQueued){
+      repartitionQueued = true;
+      maintenance().execute(() -> {
+        //changes from here on queue another restart
+        repartitionQueued = false;
+        if(startPartitions()) System.out.println("Region workers restarted.");
+      });
+    }
+  }
+
+  //starts the region workers asked for on the current version, outside the
+  //lock, and installs them unless the network changed meanwhile, in which
+  //case they are started again
+  private boolean startPartitions() {
+    while(true){
+      VersionedGraph.Version graph;
+      int regions;
+      boolean separate;
+      lock.readLock().lock();
+      try {
+        if(G == null || partitionCount == 0) return false;
+        graph = versions.current();
+        if(partitions != null && partitionGraph == graph) return true;
+        regions = partitionCount;
+        separate = partitionProcesses;
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      PartitionCoordinator fresh;
+      try {
+        fresh = new PartitionCoordinator(graph, regions, separate);
+      } catch (IOException e) {
+        e.printStackTrace();
+        return false;
+      }
+      PartitionCoordinator old = null;
+      boolean installed = false;
+      lock.writeLock().lock();
+      try {
+        if(versions.current() == graph && partitionCount == regions
+           && partitionProcesses == separate){
+          old = partitions;
+          partitions = fresh;
+          partitionGraph = graph;
+          installed = true;
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+      if(old != null) old.shutdown();
+      if(installed) return true;
+      fresh.shutdown();
+    }
+  }
+
+  /**
+   * returns the digraph backing this Airline system, or null if no routes
+   * have been loaded yet
+   */
+  public Digraph getGraph() {
+    return G;
+  }
+
+  //the shortest routes of graph between consecutive cities of a path, or
+  //null if two of them have no route between them
+  private static ArrayList<Route> routesAlong(VersionedGraph.Version graph,
+          List<String> names, int[] cities) {
+    ArrayList<Route> routes = new ArrayList<Route>(cities.length - 1);
+    for (int i = 1; i < cities.length; i++) {
+      int next = cities[i];
+      Route[] best = new Route[1];
+      graph.forEachEdge(cities[i - 1], (from, to, weight, price) -> {
+        if (to == next && (best[0] == null || weight < best[0].distance))
+          best[0] = new Route(names.get(from), names.get(to), weight, price);
+      });
+
+      if (best[0] == null) return null;
+      routes.add(best[0]);
+    }
+    return routes;
+  }
+
+  //the bfs engine behind hopDistancesFrom snapshots the routes of one
+  //version; a slow build outside the monitor holds up no other query
+  private ParallelBFS bfsEngine(VersionedGraph.Version graph) {
+    synchronized (this) {
+      if(bfsEngine != null && bfsGraph == graph) return bfsEngine;
+    }
+    ParallelBFS engine = new ParallelBFS(graph);
+    synchronized (this) {
+      bfsEngine = engine;
+      bfsGraph = graph;
+    }
+    return engine;
+  }
+
+  private int findIndex(String s) {
+    return cityIndex.indexOf(s);
+  }
+
+
+  /**
+   *  A routes file read into city names and one entry per route, keyed by
+   *  the two city names. A later line for the same two cities wins.
+   */
+  private static class RouteFile {
+    ArrayList<String> names = new ArrayList<String>();
+    Map<String, String[]> routes = new LinkedHashMap<String, String[]>();
+
+    static RouteFile read(String fileName) throws IOException {
+      RouteFile file = new RouteFile();
+      Scanner inScan = new Scanner(new FileInputStream(fileName));
+      int v = Integer.parseInt(inScan.nextLine());
+      for(int i=0; i<v; i++){
+        file.names.add(inScan.nextLine());
+      }
+      while(inScan.hasNext()){
+        String from = file.names.get(inScan.nextInt() - 1);
+        String to = file.names.get(inScan.nextInt() - 1);
+        int weight = inScan.nextInt();
+        double price = inScan.nextDouble();
+        file.routes.put(pairKey(from, to),
+          new String[] {from, to, Integer.toString(weight), Double.toString(price)});
+      }
+      inScan.close();
+      return file;
+    }
+  }
 
   /**
    *  The <tt>Digraph</tt> class represents an directed graph of vertices
    *  named 0 through v-1. It supports the following operations: add an edge to
    *  the graph, iterate over all of edges leaving a vertex.Self-loops are
-   *  permitted.
+   *  permitted. The search engines read it through <tt>RouteGraph</tt>; bfs
+   *  and dijkstras run on the calling thread's <tt>ShortestPaths</tt>.
    */
-  public class Digraph {
+  public class Digraph implements RouteGraph {
     public int v;
     private int e;
-    public LinkedList<WeightedDirectedEdge>[] adj;
-    private boolean[] marked;  // marked[v] = is there an s-v path
-    private int[] edgeTo;      // edgeTo[v] = previous edge on shortest s-v path
-    private int[] distTo;      // distTo[v] = number of edges shortest s-v path
-    private double[] priceTo;
+    public LinkedList<WeightedDirectedEdge>[] adj;  // may still hold removed edges, see adj(v)
+    private final BitSet removedVertices = new BitSet();
+    private int tombstones;     // removed edges and vertices not compacted yet
 
 
     /**
@@ -454,8 +2034,8 @@ final public class AirlineSystem implements AirlineInterface {
      */
     public void addEdge(WeightedDirectedEdge edge) {
       int from = edge.from();
-      G.adj[from].add(edge);
-      G.e++;
+      adj[from].add(edge);
+      e++;
     }
 
     /**
@@ -464,91 +2044,135 @@ final public class AirlineSystem implements AirlineInterface {
      * <tt>for (WeightedDirectedEdge e : graph.adj(v))</tt>.
      */
     public Iterable<WeightedDirectedEdge> adj(int v) {
-      return G.adj[v];
+      if (tombstones == 0) return adj[v];
+      return () -> adj[v].stream().filter(this::live).iterator();
+    }
+
+    //neither the edge nor either end of it was removed
+    private boolean live(WeightedDirectedEdge w) {
+      return !w.removed && !removedVertices.get(w.from) && !removedVertices.get(w.to);
+    }
+
+    /**
+     * Put replacement in the place of edge, which must leave the same vertex.
+     */
+    public void replaceEdge(WeightedDirectedEdge edge, WeightedDirectedEdge replacement) {
+      ListIterator<WeightedDirectedEdge> it = adj[edge.from].listIterator();
+      while (it.hasNext()) {
+        if (it.next() == edge) {
+          it.set(replacement);
+          return;
+        }
+      }
+    }
+
+    /**
+     * Mark an edge as removed; adj and forEachEdge skip it from now on.
+     */
+    public void removeEdge(WeightedDirectedEdge edge) {
+      if (edge.removed) return;
+      edge.removed = true;
+      e--;
+      tombstones++;
+    }
+
+    /**
+     * Mark vertex v as removed; adj and forEachEdge skip it and the edges to
+     * it from now on. Its index and edges stay until the digraph is
+     * compacted. Every edge must be stored in both directions.
+     */
+    public void removeVertex(int v) {
+      if (removedVertices.get(v)) return;
+      int dead = 0;
+      for (WeightedDirectedEdge w : adj[v])
+        if (live(w)) dead += w.to == v ? 1 : 2;
+      removedVertices.set(v);
+      e -= dead;
+      tombstones += 1 + dead;
+    }
+
+    public boolean isRemoved(int v) {
+      return removedVertices.get(v);
+    }
+
+    /**
+     * Return the number of removed edges and vertices still in the lists.
+     */
+    public int tombstones() {
+      return tombstones;
     }
 
     /**
-     *  The <tt>WeightedDirectedEdge</tt> class represents a weighted edge in an directed graph.
+     * Return the number of edges in this digraph.
      */
+    public int e() {
+      return e;
+    }
+
+    public int vertexCount() {
+      return v;
+    }
+
+    public int edgeCount() {
+      return e;
+    }
+
+    public void forEachEdge(int v, EdgeVisitor visitor) {
+      if (tombstones == 0) {
+        for (WeightedDirectedEdge w : adj[v])
+          visitor.visit(w.from, w.to, w.weight, w.price);
+        return;
+      }
+      for (WeightedDirectedEdge w : adj[v])
+        if (live(w)) visitor.visit(w.from, w.to, w.weight, w.price);
+    }
+
+    /**
+     * Is there a path from the source of this thread's last search to
+     * vertex v? After a dijkstras search that stopped at its destination,
+     * only the vertices settled before it are known.
+     */
+    public boolean hasPathTo(int v) {
+      return ShortestPaths.forThread().hasPathTo(v);
+    }
+
+    /**
+     * Return the distance (hops for bfs, miles for dijkstras) from the
+     * source of this thread's last search to vertex v.
+     */
+    public int distTo(int v) {
+      return ShortestPaths.forThread().distTo(v);
+    }
+
+    /**
+     * Return the vertex before v on the path found by this thread's last
+     * search.
+     */
+    public int edgeTo(int v) {
+      return ShortestPaths.forThread().edgeTo(v);
+    }
 
     //Code taken from lab9
     public void bfs(int source) {
-      marked = new boolean[this.v];
-      distTo = new int[this.e];
-      edgeTo = new int[this.v];
-
-      Queue<Integer> q = new LinkedList<Integer>();
-      for (int i = 0; i < v; i++){
-        distTo[i] = INFINITY;
-        marked[i] = false;
-      }
-      distTo[source] = 0;
-      marked[source] = true;
-      q.add(source);
-
-      while (!q.isEmpty()) {
-        int v = q.remove();
-        for (WeightedDirectedEdge w : adj(v)) {
-          if (!marked[w.to()]) {
-            edgeTo[w.to()] = v;
-            distTo[w.to()] = distTo[v] + 1;
-            marked[w.to()] = true;
-            q.add(w.to());
-          }
-        }
-      }
+      ShortestPaths.forThread().bfs(this, source);
     }
 
+    /**
+     * Compute shortest paths from source, stopping once destination is
+     * settled (pass -1 to search the whole graph). Among vertices at the same
+     * distance the one with the smallest index is settled first.
+     */
     public void dijkstras(int source, int destination) {
-      marked = new boolean[this.v];
-      distTo = new int[this.v];
-      edgeTo = new int[this.v];
-
-      for (int i = 0; i < v; i++){
-        distTo[i] = INFINITY;
-        marked[i] = false;
-      }
-      distTo[source] = 0;
-      marked[source] = true;
-      int nMarked = 1;
-
-      int current = source;
-      while (nMarked < this.v) {
-        for (WeightedDirectedEdge w : adj(current)) {
-          if (distTo[current]+w.weight() < distTo[w.to()]) {
-            edgeTo[w.to()] = current;
-            distTo[w.to()] = distTo[current]+w.weight();
-          }
-        }
-        //Find the vertex with minimum path distance
-        //This can be done more effiently using a priority queue!
-        int min = INFINITY;
-        current = -1;
-
-        for(int i=0; i<distTo.length; i++){
-          if(marked[i])
-            continue;
-          if(distTo[i] < min){
-            min = distTo[i];
-            current = i;
-          }
-        }
-        //Update marked[] and nMarked. Check for disconnected graph.
-        if(current != -1 && distTo[current] != INFINITY){
-          marked[current] = true ;
-          nMarked++;
-        } else{
-          break;
-        }
-      }
+      ShortestPaths.forThread().dijkstra(this, source, destination);
     }
   } // end class Digraph
 
   public class WeightedDirectedEdge {
     private final int from;
     private final int to;
-    private int weight;
-    private double price;
+    private final int weight;
+    private final double price;
+    private boolean removed;
     /**
      * Create a directed edge from v to w with given weight.
      */
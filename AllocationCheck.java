@@ -0,0 +1,144 @@
+import java.util.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ *  The <tt>AllocationCheck</tt> class is a regression check for the
+ *  garbage produced by the hot queries of <tt>AirlineSystem</tt>. It builds a
+ *  synthetic network, warms the queries up, then measures the bytes each
+ *  query allocates on average with
+ *  <tt>com.sun.management.ThreadMXBean.getThreadAllocatedBytes</tt>, summed
+ *  over the thread running the queries and the workers of the common
+ *  fork/join pool, so that work they hand off is counted too while other
+ *  threads of the JVM (compiler, GC, finalizer) are not.
+ *  Every query has a budget of <tt>fixed + perCity * V</tt> bytes; the check
+ *  prints a table and exits with status 1 if any query is over its budget,
+ *  so a build script can run <tt>java AllocationCheck</tt> as a gate.
+ */
+public class AllocationCheck {
+  private static final int WARMUP = 2000;
+  private static final int RUNS = 2000;
+
+  /**
+   * Allowed bytes per query: fixed + perCity * number of cities.
+   */
+  private static final Object[][] BUDGETS = {
+    // query                       fixed   perCity
+    {"retrieveDirectRoutesFrom",   2048L,  0L},
+    {"fewestStopsItinerary",       2048L,  0L},
+    {"shortestDistanceItinerary",  4096L,  0L},
+  };
+
+  private final com.sun.management.ThreadMXBean threads =
+    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  private final ThreadGroup root = rootGroup();
+  private Thread[] live = new Thread[64];  // reused so counting allocates nothing
+
+  /**
+   * Run the check.
+   * @param args the number of cities (default 1000) and the average number
+   * of routes per city (default 6)
+   */
+  public static void main(String[] args) throws Exception {
+    int cities = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int degree = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+    System.exit(new AllocationCheck().run(cities, degree) ? 0 : 1);
+  }
+
+  private boolean run(int cities, int degree) throws Exception {
+    if (!threads.isThreadAllocatedMemorySupported())
+      throw new IllegalStateException("allocation counting is not supported by this JVM");
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    AirlineSystem airline = new AirlineSystem();
+    airline.loadRoutes(network(cities, degree).getPath());
+    System.out.println();
+
+    //the same query mix for every measurement
+    Random rand = new Random(1501);
+    String[] from = new String[RUNS], to = new String[RUNS];
+    for (int i = 0; i < RUNS; i++) {
+      from[i] = "City" + rand.nextInt(cities);
+      to[i] = "City" + rand.nextInt(cities);
+    }
+
+    long[] measured = new long[BUDGETS.length];
+    for (int pass = 0; pass < 2; pass++) {  // first pass warms up
+      int runs = pass == 0 ? WARMUP : RUNS;
+      for (int q = 0; q < BUDGETS.length; q++) {
+        long before = allocated();
+        for (int i = 0; i < runs; i++) {
+          int k = i % RUNS;
+          switch (q) {
+            case 0: airline.retrieveDirectRoutesFrom(from[k]); break;
+            case 1: airline.fewestStopsItinerary(from[k], to[k]); break;
+            case 2: airline.shortestDistanceItinerary(from[k], to[k]); break;
+          }
+        }
+        measured[q] = (allocated() - before) / runs;
+      }
+    }
+
+    boolean ok = true;
+    System.out.printf("%-28s %12s %12s%n", "query", "bytes/op", "budget");
+    for (int q = 0; q < BUDGETS.length; q++) {
+      long budget = (Long) BUDGETS[q][1] + (Long) BUDGETS[q][2] * cities;
+      boolean over = measured[q] > budget;
+      ok &= !over;
+      System.out.printf("%-28s %12d %12d%s%n", BUDGETS[q][0], measured[q], budget,
+        over ? "  OVER BUDGET" : "");
+    }
+    return ok;
+  }
+
+  //bytes allocated so far by this thread and the common pool's workers
+  private long allocated() {
+    int count;
+    while ((count = root.enumerate(live, true)) == live.length)
+      live = new Thread[2 * live.length];
+    Thread self = Thread.currentThread();
+    ForkJoinPool common = ForkJoinPool.commonPool();
+    long total = 0;
+    for (int i = 0; i < count; i++) {
+      Thread t = live[i];
+      if (t != self && !(t instanceof ForkJoinWorkerThread
+                         && ((ForkJoinWorkerThread) t).getPool() == common))
+        continue;
+      long bytes = threads.getThreadAllocatedBytes(t.getId());
+      if (bytes > 0) total += bytes;
+    }
+    return total;
+  }
+
+  private static ThreadGroup rootGroup() {
+    ThreadGroup group = Thread.currentThread().getThreadGroup();
+    while (group.getParent() != null)
+      group = group.getParent();
+    return group;
+  }
+
+  //a ring through every city plus random routes, so every pair is connected
+  private static File network(int cities, int degree) throws IOException {
+    File file = File.createTempFile("routes", ".txt");
+    file.deleteOnExit();
+    Random rand = new Random(1501);
+    PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+    out.println(cities);
+    for (int i = 0; i < cities; i++)
+      out.println("City" + i);
+    for (int i = 0; i < cities; i++) {
+      out.println((i + 1) + " " + ((i + 1) % cities + 1) + " " + (1 + rand.nextInt(1000))
+        + " " + (50 + rand.nextInt(500)) + ".00");
+      for (int j = 1; j < degree / 2; j++) {
+        int to = rand.nextInt(cities);
+        if (to == i) continue;
+        out.println((i + 1) + " " + (to + 1) + " " + (1 + rand.nextInt(1000))
+          + " " + (50 + rand.nextInt(500)) + ".00");
+      }
+    }
+    out.close();
+    return file;
+  }
+}
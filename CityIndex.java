@@ -0,0 +1,108 @@
+import java.util.List;
+
+/**
+ *  The <tt>CityIndex</tt> class keeps the city ids sorted by name
+ *  (ignoring case) so that exact lookups and prefix completions are answered
+ *  by binary search. It only stores int ids; the names themselves are read
+ *  from the city list of the Airline system, which is replaced by a longer
+ *  copy whenever a city is added (see <tt>add</tt>). Completions are written into a caller-supplied array, so
+ *  a lookup allocates nothing.
+ */
+public class CityIndex {
+  private List<String> names;
+  private int[] sorted;  // sorted[i] = id of the i-th city in name order
+  private int n;
+
+  /**
+   * Create an index over every name currently in names.
+   */
+  public CityIndex(List<String> names) {
+    this.names = names;
+    this.sorted = new int[Math.max(names.size(), 8)];
+    for (int i = 0; i < names.size(); i++)
+      insert(i);
+  }
+
+  /**
+   * Insert the last city of names, a copy of the list this index reads with
+   * one name appended; the index reads names from now on.
+   */
+  public void add(List<String> names) {
+    this.names = names;
+    insert(names.size() - 1);
+  }
+
+  private void insert(int city) {
+    if (n == sorted.length) {
+      int[] temp = new int[2 * n];
+      System.arraycopy(sorted, 0, temp, 0, n);
+      sorted = temp;
+    }
+    String name = names.get(city);
+    int lo = 0, hi = n;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (compare(names.get(sorted[mid]), name) <= 0) lo = mid + 1;
+      else hi = mid;
+    }
+    System.arraycopy(sorted, lo, sorted, lo + 1, n - lo);
+    sorted[lo] = city;
+    n++;
+  }
+
+  /**
+   * Forget the city with the given id; its name stays in the list.
+   */
+  public void remove(int city) {
+    for (int i = lowerBound(names.get(city)); i < n; i++) {
+      if (sorted[i] == city) {
+        System.arraycopy(sorted, i + 1, sorted, i, n - i - 1);
+        n--;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Return the id of the city with exactly this name, or -1.
+   */
+  public int indexOf(String name) {
+    for (int i = lowerBound(name); i < n; i++) {
+      String s = names.get(sorted[i]);
+      if (!s.equalsIgnoreCase(name)) break;
+      if (s.equals(name)) return sorted[i];
+    }
+    return -1;
+  }
+
+  /**
+   * Write the names starting with prefix (ignoring case), in alphabetical
+   * order, into matches.
+   * @return the number of names written, at most matches.length
+   */
+  public int complete(String prefix, String[] matches) {
+    int count = 0;
+    for (int i = lowerBound(prefix); i < n && count < matches.length; i++) {
+      String s = names.get(sorted[i]);
+      if (!s.regionMatches(true, 0, prefix, 0, prefix.length())) break;
+      matches[count++] = s;
+    }
+    return count;
+  }
+
+  //first position whose name is not less than key
+  private int lowerBound(String key) {
+    int lo = 0, hi = n;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (String.CASE_INSENSITIVE_ORDER.compare(names.get(sorted[mid]), key) < 0) lo = mid + 1;
+      else hi = mid;
+    }
+    return lo;
+  }
+
+  private static int compare(String a, String b) {
+    int c = String.CASE_INSENSITIVE_ORDER.compare(a, b);
+    return c != 0 ? c : a.compareTo(b);
+  }
+}
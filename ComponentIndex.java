@@ -0,0 +1,101 @@
+import java.util.Arrays;
+
+/**
+ *  The <tt>ComponentIndex</tt> class labels the connected components of the
+ *  route network with a weighted quick-union (union-find) structure with path
+ *  compression. Routes are always added in both directions, so two cities in
+ *  the same component can reach each other.
+ *  Adding cities and routes updates the index incrementally; removing routes
+ *  cannot be undone in a union-find, so call <tt>rebuild</tt> afterwards.
+ */
+public class ComponentIndex {
+  private int[] parent;  // parent[i] = parent of i
+  private int[] size;    // size[i] = number of cities in tree rooted at i
+  private int n;         // number of cities
+  private int count;     // number of components
+
+  /**
+   * Create an index over the current routes of G.
+   */
+  public ComponentIndex(RouteGraph G) {
+    rebuild(G);
+  }
+
+  /**
+   * Throw away all labels and recompute them from the routes of G.
+   */
+  public void rebuild(RouteGraph G) {
+    n = G.vertexCount();
+    count = n;
+    parent = new int[Math.max(n, 1)];
+    size = new int[Math.max(n, 1)];
+    for (int i = 0; i < n; i++) {
+      parent[i] = i;
+      size[i] = 1;
+    }
+    for (int v = 0; v < n; v++)
+      G.forEachEdge(v, (from, to, weight, price) -> union(from, to));
+  }
+
+  /**
+   * Add a new city, in a component of its own, with the next index.
+   */
+  public void addVertex() {
+    if (n == parent.length) {
+      parent = Arrays.copyOf(parent, 2 * n);
+      size = Arrays.copyOf(size, 2 * n);
+    }
+    parent[n] = n;
+    size[n] = 1;
+    n++;
+    count++;
+  }
+
+  /**
+   * Merge the components of p and q after a route between them was added.
+   */
+  public void union(int p, int q) {
+    int rootP = find(p);
+    int rootQ = find(q);
+    if (rootP == rootQ) return;
+
+    //make smaller root point to larger one
+    if (size[rootP] < size[rootQ]) {
+      parent[rootP] = rootQ;
+      size[rootQ] += size[rootP];
+    } else {
+      parent[rootQ] = rootP;
+      size[rootP] += size[rootQ];
+    }
+    count--;
+  }
+
+  /**
+   * Return the component label of city p.
+   */
+  public int find(int p) {
+    int root = p;
+    while (root != parent[root])
+      root = parent[root];
+    while (p != root) {
+      int next = parent[p];
+      parent[p] = root;
+      p = next;
+    }
+    return root;
+  }
+
+  /**
+   * Are cities p and q in the same component?
+   */
+  public boolean connected(int p, int q) {
+    return find(p) == find(q);
+  }
+
+  /**
+   * Return the number of components.
+   */
+  public int count() {
+    return count;
+  }
+}
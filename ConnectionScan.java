@@ -0,0 +1,201 @@
+import java.util.Arrays;
+
+/**
+ *  The <tt>ConnectionScan</tt> class answers timetable queries with the
+ *  Connection Scan Algorithm of Dibbelt et al. Every scheduled flight
+ *  (connection) is stored once in parallel primitive arrays sorted by
+ *  departure time, so a query is a single linear pass over them.
+ *  Times are minutes after midnight of the first day. A passenger can take a
+ *  connection that departs at or after the time they arrived at its city.
+ *  Removing a city only marks it, and the scans skip its connections.
+ */
+public class ConnectionScan {
+  private static final int INFINITY = Integer.MAX_VALUE;
+
+  private final int n;           // number of cities
+  private final int[] from;      // from[c] = city connection c leaves
+  private final int[] to;        // to[c] = city connection c arrives at
+  private final int[] departure; // sorted ascending
+  private final int[] arrival;
+  private final boolean[] removed; // removed[v] = city v is gone, skip its connections
+
+  /**
+   * Create an engine over the given connections, which need not be sorted.
+   * @param n the number of cities
+   * @param from the departure city of each connection
+   * @param to the arrival city of each connection
+   * @param departure the departure time of each connection
+   * @param arrival the arrival time of each connection
+   */
+  public ConnectionScan(int n, int[] from, int[] to, int[] departure,
+                        int[] arrival) {
+    int m = from.length;
+    //sort by departure time, ties in input order
+    long[] keys = new long[m];
+    for (int c = 0; c < m; c++) {
+      if (arrival[c] < departure[c])
+        throw new IllegalArgumentException("connection " + c + " arrives before it departs");
+      keys[c] = ((long) departure[c] << 32) | c;
+    }
+    Arrays.sort(keys);
+
+    this.n = n;
+    this.from = new int[m];
+    this.to = new int[m];
+    this.departure = new int[m];
+    this.arrival = new int[m];
+    this.removed = new boolean[n];
+    for (int i = 0; i < m; i++) {
+      int c = (int) keys[i];
+      this.from[i] = from[c];
+      this.to[i] = to[c];
+      this.departure[i] = departure[c];
+      this.arrival[i] = arrival[c];
+    }
+  }
+
+  /**
+   * Return the number of cities the timetable was built for.
+   */
+  public int cities() {
+    return n;
+  }
+
+  /**
+   * Drop every connection to or from city v from the answers.
+   */
+  public void removeCity(int v) {
+    removed[v] = true;
+  }
+
+  public boolean isRemoved(int v) {
+    return removed[v];
+  }
+
+  /**
+   * Return the number of connections, including those of removed cities.
+   */
+  public int size() {
+    return from.length;
+  }
+
+  public int from(int c) {
+    return from[c];
+  }
+
+  public int to(int c) {
+    return to[c];
+  }
+
+  public int departure(int c) {
+    return departure[c];
+  }
+
+  public int arrival(int c) {
+    return arrival[c];
+  }
+
+  /**
+   * Find the earliest arrival at destination for a passenger who is at
+   * source from time start on.
+   * @return the connections of one earliest-arrival journey in travel order,
+   * an empty array if source equals destination, or null if destination
+   * cannot be reached
+   */
+  public int[] earliestArrival(int source, int destination, int start) {
+    if (source == destination) return new int[0];
+    int[] earliest = new int[n];      // earliest[v] = earliest known arrival at v
+    int[] inConnection = new int[n];  // connection reaching v at earliest[v]
+    Arrays.fill(earliest, INFINITY);
+    earliest[source] = start;
+
+    for (int c = firstDepartingAt(start); c < departure.length; c++) {
+      //nothing departing later can arrive earlier
+      if (departure[c] >= earliest[destination]) break;
+      if (removed[from[c]] || removed[to[c]]) continue;
+      if (earliest[from[c]] <= departure[c] && arrival[c] < earliest[to[c]]) {
+        earliest[to[c]] = arrival[c];
+        inConnection[to[c]] = c;
+      }
+    }
+    if (earliest[destination] == INFINITY) return null;
+
+    int legs = 0;
+    for (int v = destination; v != source; v = from[inConnection[v]])
+      legs++;
+    int[] journey = new int[legs];
+    for (int v = destination; v != source; v = from[inConnection[v]])
+      journey[--legs] = inConnection[v];
+    return journey;
+  }
+
+  /**
+   * Find, for every departure time from source, the earliest arrival at
+   * destination, keeping only journeys that no other journey beats by both
+   * leaving later and arriving earlier.
+   * @return a two-row array: row 0 holds the departure times in ascending
+   * order and row 1 the matching arrival times
+   */
+  public int[][] profile(int source, int destination) {
+    //profiles[v] holds (departure, arrival) pairs for getting from v to
+    //destination, appended in descending departure and arrival order
+    int[][] profDep = new int[n][];
+    int[][] profArr = new int[n][];
+    int[] profSize = new int[n];
+
+    for (int c = departure.length - 1; c >= 0; c--) {
+      if (removed[from[c]] || removed[to[c]]) continue;
+      int best = to[c] == destination ? arrival[c] : INFINITY;
+      int u = to[c];
+      if (profSize[u] > 0) {
+        //last pair departing at or after we arrive has the earliest arrival
+        int lo = 0, hi = profSize[u];
+        while (lo < hi) {
+          int mid = (lo + hi) >>> 1;
+          if (profDep[u][mid] >= arrival[c]) lo = mid + 1;
+          else hi = mid;
+        }
+        if (lo > 0)
+          best = Math.min(best, profArr[u][lo - 1]);
+      }
+      if (best == INFINITY) continue;
+
+      int v = from[c];
+      int k = profSize[v];
+      if (k > 0 && profArr[v][k - 1] <= best) continue;  // dominated
+      if (k > 0 && profDep[v][k - 1] == departure[c]) {
+        profArr[v][k - 1] = best;
+        continue;
+      }
+      if (profDep[v] == null) {
+        profDep[v] = new int[4];
+        profArr[v] = new int[4];
+      } else if (k == profDep[v].length) {
+        profDep[v] = Arrays.copyOf(profDep[v], 2 * k);
+        profArr[v] = Arrays.copyOf(profArr[v], 2 * k);
+      }
+      profDep[v][k] = departure[c];
+      profArr[v][k] = best;
+      profSize[v]++;
+    }
+
+    int k = profSize[source];
+    int[][] result = new int[2][k];
+    for (int i = 0; i < k; i++) {
+      result[0][i] = profDep[source][k - 1 - i];
+      result[1][i] = profArr[source][k - 1 - i];
+    }
+    return result;
+  }
+
+  //first connection departing at or after time
+  private int firstDepartingAt(int time) {
+    int lo = 0, hi = departure.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (departure[mid] < time) lo = mid + 1;
+      else hi = mid;
+    }
+    return lo;
+  }
+}
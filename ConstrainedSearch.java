@@ -0,0 +1,227 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ *  The <tt>ConstrainedSearch</tt> class finds the cheapest or the shortest
+ *  itinerary between two cities that stays within a maximum number of stops,
+ *  a maximum total price and a maximum total distance.
+ *  Labels (city, distance so far, price so far) are relaxed one stop layer
+ *  at a time. A label is dropped when another label at the same city with no
+ *  more stops is at least as short and as cheap, or when even the cheapest,
+ *  shortest and fewest-hops completion from its city would break a budget;
+ *  those lower bounds come from searches backwards from the destination,
+ *  which also reject impossible queries before any label is built.
+ *  The engine reads an off-heap snapshot of the routes and of the reversed
+ *  routes taken when it is built (see <tt>OffHeapGraph.of</tt>).
+ */
+public class ConstrainedSearch {
+  private static final int INFINITY = Integer.MAX_VALUE;
+
+  private final int n;
+  private final OffHeapGraph out;   // the routes out of every city
+  private final OffHeapGraph in;    // the routes into every city
+
+  /**
+   * Create an engine over a snapshot of G.
+   */
+  public ConstrainedSearch(RouteGraph G) {
+    n = G.vertexCount();
+    out = OffHeapGraph.of(G);
+    in = out.reverse();
+  }
+
+  /**
+   * Find the best itinerary from source to destination within the budgets.
+   * @param maxStops the maximum number of intermediate cities, or a negative
+   * number for no limit
+   * @param maxPrice the maximum total price
+   * @param maxDistance the maximum total distance
+   * @param cheapest true to minimize price, false to minimize distance
+   * @return the indices of the routes of the itinerary in travel order (see
+   * from, to, weight and price), or null if no itinerary meets the budgets
+   */
+  public int[] search(int source, int destination, int maxStops,
+                      double maxPrice, int maxDistance, boolean cheapest) {
+    int maxHops = maxStops < 0 || maxStops >= n ? Math.max(n - 1, 1) : maxStops + 1;
+    if (source == destination) return new int[0];
+
+    //lower bounds on what is left to reach destination
+    int[] lbHops = reverseHops(destination);
+    int[] lbDist = reverseDistances(destination);
+    double[] lbPrice = reversePrices(destination);
+    if (lbHops[source] > maxHops || lbDist[source] > maxDistance
+        || lbPrice[source] > maxPrice)
+      return null;
+
+    Labels labels = new Labels();
+    int[][] atCity = new int[n][];   // labels kept at each city
+    int[] atCount = new int[n];
+    labels.add(source, 0, 0, -1, -1);
+    add(atCity, atCount, source, 0);
+
+    int best = -1;
+    int layerStart = 0, layerEnd = 1;
+    for (int hop = 1; hop <= maxHops && layerStart < layerEnd; hop++) {
+      for (int l = layerStart; l < layerEnd; l++) {
+        int v = labels.city[l];
+        if (v == destination) continue;
+        int end = out.firstEdge(v + 1);
+        for (int k = out.firstEdge(v); k < end; k++) {
+          int w = out.target(k);
+          long d = (long) labels.dist[l] + out.weight(k);
+          double p = labels.price[l] + out.price(k);
+          if (lbHops[w] == INFINITY || hop + lbHops[w] > maxHops
+              || d + lbDist[w] > maxDistance || p + lbPrice[w] > maxPrice)
+            continue;
+          if (best != -1 && (cheapest ? p + lbPrice[w] >= labels.price[best]
+                                      : d + lbDist[w] >= labels.dist[best]))
+            continue;
+          if (dominated(labels, atCity[w], atCount[w], (int) d, p)) continue;
+
+          int label = labels.add(w, (int) d, p, l, k);
+          add(atCity, atCount, w, label);
+          if (w == destination)
+            best = label;
+        }
+      }
+      layerStart = layerEnd;
+      layerEnd = labels.size;
+    }
+    if (best == -1) return null;
+
+    int legs = 0;
+    for (int l = best; labels.parent[l] != -1; l = labels.parent[l])
+      legs++;
+    int[] path = new int[legs];
+    for (int l = best; labels.parent[l] != -1; l = labels.parent[l])
+      path[--legs] = labels.edge[l];
+    return path;
+  }
+
+  /**
+   * Return the source city of route k.
+   */
+  public int from(int k) {
+    int lo = 0, hi = n - 1;
+    //last city whose first route is at or before k
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (out.firstEdge(mid) <= k) lo = mid;
+      else hi = mid - 1;
+    }
+    return lo;
+  }
+
+  public int to(int k) {
+    return out.target(k);
+  }
+
+  public int weight(int k) {
+    return out.weight(k);
+  }
+
+  public double price(int k) {
+    return out.price(k);
+  }
+
+  private static boolean dominated(Labels labels, int[] kept, int count,
+                                   int d, double p) {
+    for (int i = 0; i < count; i++) {
+      int l = kept[i];
+      if (labels.dist[l] <= d && labels.price[l] <= p) return true;
+    }
+    return false;
+  }
+
+  private static void add(int[][] atCity, int[] atCount, int v, int label) {
+    if (atCity[v] == null) atCity[v] = new int[4];
+    else if (atCount[v] == atCity[v].length)
+      atCity[v] = Arrays.copyOf(atCity[v], 2 * atCount[v]);
+    atCity[v][atCount[v]++] = label;
+  }
+
+  private int[] reverseHops(int t) {
+    int[] hops = new int[n];
+    Arrays.fill(hops, INFINITY);
+    int[] queue = new int[n];
+    int head = 0, tail = 0;
+    hops[t] = 0;
+    queue[tail++] = t;
+    while (head < tail) {
+      int v = queue[head++];
+      int end = in.firstEdge(v + 1);
+      for (int k = in.firstEdge(v); k < end; k++) {
+        if (hops[in.target(k)] == INFINITY) {
+          hops[in.target(k)] = hops[v] + 1;
+          queue[tail++] = in.target(k);
+        }
+      }
+    }
+    return hops;
+  }
+
+  private int[] reverseDistances(int t) {
+    double[] d = reverseDijkstra(t, false);
+    int[] dist = new int[n];
+    for (int v = 0; v < n; v++)
+      dist[v] = d[v] == Double.POSITIVE_INFINITY ? INFINITY : (int) d[v];
+    return dist;
+  }
+
+  private double[] reversePrices(int t) {
+    return reverseDijkstra(t, true);
+  }
+
+  //Dijkstra on reversed routes, weighted by price or distance
+  private double[] reverseDijkstra(int t, boolean byPrice) {
+    double[] dist = new double[n];
+    boolean[] marked = new boolean[n];
+    Arrays.fill(dist, Double.POSITIVE_INFINITY);
+    dist[t] = 0;
+    PriorityQueue<double[]> pq =
+      new PriorityQueue<double[]>((a, b) -> Double.compare(a[0], b[0]));
+    pq.add(new double[] {0, t});
+    while (!pq.isEmpty()) {
+      int v = (int) pq.poll()[1];
+      if (marked[v]) continue;
+      marked[v] = true;
+      int end = in.firstEdge(v + 1);
+      for (int k = in.firstEdge(v); k < end; k++) {
+        double nd = dist[v] + (byPrice ? in.price(k) : in.weight(k));
+        if (nd < dist[in.target(k)]) {
+          dist[in.target(k)] = nd;
+          pq.add(new double[] {nd, in.target(k)});
+        }
+      }
+    }
+    return dist;
+  }
+
+  /**
+   * Growable parallel arrays of labels.
+   */
+  private static class Labels {
+    int[] city = new int[64];
+    int[] dist = new int[64];
+    double[] price = new double[64];
+    int[] parent = new int[64];
+    int[] edge = new int[64];     // route taken into the label's city
+    int size;
+
+    int add(int v, int d, double p, int from, int k) {
+      if (size == city.length) {
+        city = Arrays.copyOf(city, 2 * size);
+        dist = Arrays.copyOf(dist, 2 * size);
+        price = Arrays.copyOf(price, 2 * size);
+        parent = Arrays.copyOf(parent, 2 * size);
+        edge = Arrays.copyOf(edge, 2 * size);
+      }
+      city[size] = v;
+      dist[size] = d;
+      price[size] = p;
+      parent[size] = from;
+      edge[size] = k;
+      return size++;
+    }
+  }
+}
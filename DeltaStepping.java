@@ -0,0 +1,306 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.io.*;
+
+/**
+ *  The <tt>DeltaStepping</tt> class computes single-source shortest paths over
+ *  a <tt>RouteGraph</tt> with the delta-stepping algorithm of
+ *  Meyer and Sanders. Vertices are kept in buckets of width delta; every
+ *  bucket is relaxed in parallel on a fork/join pool, light edges (weight at
+ *  most delta) first and heavy edges once the bucket is settled.
+ *  The distances and predecessors it produces are the same as the ones
+ *  <tt>Digraph.dijkstras</tt> produces for the same source.
+ */
+public class DeltaStepping {
+  private static final int INFINITY = Integer.MAX_VALUE;
+  private static final int THRESHOLD = 256;  // vertices per fork/join leaf
+  private static final int WARMUP = 5;       // untimed runs before each benchmark timing
+
+  private final RouteGraph G;
+  private final int delta;
+  private final ForkJoinPool pool;
+
+  private AtomicIntegerArray distTo;  // distTo[v] = length of shortest s-v path
+  private int[] edgeTo;               // edgeTo[v] = previous vertex on shortest s-v path
+  private int source = -1;
+
+  /**
+   * Create a delta-stepping engine over G.
+   * @param G the digraph to search
+   * @param delta the bucket width in miles, must be positive
+   * @param parallelism the number of worker threads
+   */
+  public DeltaStepping(RouteGraph G, int delta, int parallelism) {
+    if (delta <= 0) throw new IllegalArgumentException("delta must be positive");
+    if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be positive");
+    this.G = G;
+    this.delta = delta;
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Compute shortest paths from source to every vertex reachable from it.
+   */
+  public void run(int source) {
+    int n = G.vertexCount();
+    this.source = source;
+    distTo = new AtomicIntegerArray(n);
+    for (int i = 0; i < n; i++)
+      distTo.set(i, INFINITY);
+    distTo.set(source, 0);
+
+    ArrayList<IntBag> buckets = new ArrayList<IntBag>();
+    int[] seen = new int[n];     // seen[v] = last round v was added to the settled set
+    int round = 0;
+    insert(buckets, source);
+
+    for (int i = 0; i < buckets.size(); i++) {
+      round++;
+      IntBag settled = new IntBag();
+      while (buckets.get(i).size > 0) {
+        IntBag frontier = buckets.get(i);
+        buckets.set(i, new IntBag());
+        IntBag live = new IntBag();
+        for (int k = 0; k < frontier.size; k++) {
+          int v = frontier.items[k];
+          //skip stale entries left behind by a later decrease
+          if (distTo.get(v) / delta != i) continue;
+          live.add(v);
+          if (seen[v] != round) {
+            seen[v] = round;
+            settled.add(v);
+          }
+        }
+        IntBag updated = pool.invoke(new Relax(live.items, 0, live.size, true));
+        for (int k = 0; k < updated.size; k++)
+          insert(buckets, updated.items[k]);
+      }
+      IntBag updated = pool.invoke(new Relax(settled.items, 0, settled.size, false));
+      for (int k = 0; k < updated.size; k++)
+        insert(buckets, updated.items[k]);
+    }
+    edgeTo = predecessors();
+  }
+
+  /**
+   * Is there a path from the source to vertex v?
+   */
+  public boolean hasPathTo(int v) {
+    return distTo.get(v) != INFINITY;
+  }
+
+  /**
+   * Return the length of the shortest path from the source to vertex v.
+   */
+  public int distTo(int v) {
+    return distTo.get(v);
+  }
+
+  /**
+   * Return the vertex before v on the shortest path from the source.
+   */
+  public int edgeTo(int v) {
+    return edgeTo[v];
+  }
+
+  /**
+   * Release the worker threads of this engine.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  private void insert(ArrayList<IntBag> buckets, int v) {
+    int b = distTo.get(v) / delta;
+    while (buckets.size() <= b)
+      buckets.add(new IntBag());
+    buckets.get(b).add(v);
+  }
+
+  /**
+   * Pick for every vertex the predecessor Digraph.dijkstras would have kept:
+   * dijkstras settles vertices by (distance, index) and only replaces edgeTo
+   * on a strict improvement, so the first settled tight neighbour wins.
+   */
+  private int[] predecessors() {
+    int n = G.vertexCount();
+    AtomicLongArray best = new AtomicLongArray(n);
+    for (int i = 0; i < n; i++)
+      best.set(i, Long.MAX_VALUE);
+    pool.invoke(new Tighten(best, 0, n));
+
+    int[] pred = new int[n];
+    for (int i = 0; i < n; i++) {
+      if (i != source && best.get(i) != Long.MAX_VALUE)
+        pred[i] = (int) best.get(i);
+    }
+    return pred;
+  }
+
+  /**
+   * Relaxes the light or heavy edges out of items[lo..hi) and returns the
+   * vertices whose distance went down.
+   */
+  @SuppressWarnings("serial")
+  private class Relax extends RecursiveTask<IntBag> {
+    private final int[] items;
+    private final int lo, hi;
+    private final boolean light;
+
+    Relax(int[] items, int lo, int hi, boolean light) {
+      this.items = items;
+      this.lo = lo;
+      this.hi = hi;
+      this.light = light;
+    }
+
+    protected IntBag compute() {
+      if (hi - lo > THRESHOLD) {
+        int mid = (lo + hi) >>> 1;
+        Relax left = new Relax(items, lo, mid, light);
+        left.fork();
+        IntBag right = new Relax(items, mid, hi, light).compute();
+        IntBag result = left.join();
+        result.addAll(right);
+        return result;
+      }
+      IntBag updated = new IntBag();
+      for (int k = lo; k < hi; k++) {
+        int v = items[k];
+        int d = distTo.get(v);
+        G.forEachEdge(v, (from, to, weight, price) -> {
+          if ((weight <= delta) != light) return;
+          int nd = d + weight;
+          int old = distTo.get(to);
+          while (nd < old) {
+            if (distTo.compareAndSet(to, old, nd)) {
+              updated.add(to);
+              break;
+            }
+            old = distTo.get(to);
+          }
+        });
+      }
+      return updated;
+    }
+  }
+
+  /**
+   * Records for every vertex the smallest (distTo[u], u) over tight edges u-v.
+   */
+  @SuppressWarnings("serial")
+  private class Tighten extends RecursiveTask<Void> {
+    private final AtomicLongArray best;
+    private final int lo, hi;
+
+    Tighten(AtomicLongArray best, int lo, int hi) {
+      this.best = best;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    protected Void compute() {
+      if (hi - lo > THRESHOLD) {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new Tighten(best, lo, mid), new Tighten(best, mid, hi));
+        return null;
+      }
+      for (int u = lo; u < hi; u++) {
+        int d = distTo.get(u);
+        if (d == INFINITY) continue;
+        long key = ((long) d << 32) | u;
+        G.forEachEdge(u, (from, to, weight, price) -> {
+          if (d + weight != distTo.get(to)) return;
+          long old = best.get(to);
+          while (key < old && !best.compareAndSet(to, old, key))
+            old = best.get(to);
+        });
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A growable bag of primitive ints.
+   */
+  private static class IntBag {
+    int[] items = new int[8];
+    int size;
+
+    void add(int x) {
+      if (size == items.length) items = Arrays.copyOf(items, size * 2);
+      items[size++] = x;
+    }
+
+    void addAll(IntBag other) {
+      for (int k = 0; k < other.size; k++)
+        add(other.items[k]);
+    }
+  }
+
+  /**
+   * Benchmark client: builds a random route file, then times serial
+   * Dijkstra (<tt>ShortestPaths</tt>) against delta-stepping for 1, 2, 4,
+   * ... cores and checks that both produce the same output. Both read the
+   * same off-heap snapshot and are warmed up the same way before they are
+   * timed.
+   * Usage: java DeltaStepping [cities] [routesPerCity] [delta]
+   */
+  public static void main(String[] args) throws IOException {
+    int cities = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int degree = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    int delta = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+    File file = File.createTempFile("routes", ".txt");
+    file.deleteOnExit();
+    Random rand = new Random(1501);
+    PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+    out.println(cities);
+    for (int i = 0; i < cities; i++)
+      out.println("City" + i);
+    for (int i = 0; i < cities; i++) {
+      for (int j = 0; j < degree / 2; j++) {
+        int to = rand.nextInt(cities);
+        out.println((i + 1) + " " + (to + 1) + " " + (1 + rand.nextInt(1000))
+          + " " + (50 + rand.nextInt(500)) + ".00");
+      }
+    }
+    out.close();
+
+    AirlineSystem airline = new AirlineSystem();
+    airline.loadRoutes(file.getPath());
+    System.out.println();
+    OffHeapGraph offHeap = OffHeapGraph.copyOf(airline.getGraph());
+
+    ShortestPaths sp = ShortestPaths.forThread();
+    for (int i = 0; i < WARMUP; i++)
+      sp.dijkstra(offHeap, 0, -1);
+    long start = System.nanoTime();
+    sp.dijkstra(offHeap, 0, -1);
+    long serial = System.nanoTime() - start;
+    System.out.printf("serial dijkstra: %d ms%n", serial / 1000000);
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int p = 1; p <= cores; p *= 2) {
+      DeltaStepping ds = new DeltaStepping(offHeap, delta, p);
+      for (int i = 0; i < WARMUP; i++)
+        ds.run(0);
+      start = System.nanoTime();
+      ds.run(0);
+      long time = System.nanoTime() - start;
+      boolean same = true;
+      for (int v = 0; v < cities; v++) {
+        if (ds.hasPathTo(v) != sp.hasPathTo(v)
+            || (ds.hasPathTo(v) && (ds.distTo(v) != sp.distTo(v)
+                                    || ds.edgeTo(v) != sp.edgeTo(v))))
+          same = false;
+      }
+      System.out.printf("delta-stepping, %2d cores: %d ms (speedup %.1fx)%s%n",
+        p, time / 1000000, (double) serial / time, same ? "" : " MISMATCH");
+      ds.shutdown();
+    }
+  }
+}
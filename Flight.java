@@ -0,0 +1,59 @@
+import java.util.Objects;
+
+final public class Flight {
+  public String source;
+  public String destination;
+  public int departure;  // minutes after midnight of the first day
+  public int arrival;
+
+  public Flight(String source, String destination, int departure, int arrival){
+    this.source = source;
+    this.destination = destination;
+    this.departure = departure;
+    this.arrival = arrival;
+  }
+
+  /**
+   * parses a time of the form H:MM (hours may go past 23 for later days)
+   * @param time the String time
+   * @return the time in minutes after midnight of the first day
+   */
+  public static int parseTime(String time){
+    int colon = time.indexOf(':');
+    if(colon == -1)
+      throw new NumberFormatException("not a H:MM time: " + time);
+    return Integer.parseInt(time.substring(0, colon)) * 60
+      + Integer.parseInt(time.substring(colon + 1));
+  }
+
+  /**
+   * formats minutes after midnight of the first day as H:MM
+   */
+  public static String formatTime(int minutes){
+    int m = minutes % 60;
+    return minutes / 60 + (m < 10 ? ":0" : ":") + m;
+  }
+
+  @Override
+  public boolean equals(Object other){
+    if (other instanceof Flight){
+      Flight otherFlight = (Flight) other;
+      return source.equals(otherFlight.source)
+             && destination.equals(otherFlight.destination)
+             && departure == otherFlight.departure
+             && arrival == otherFlight.arrival;
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode(){
+    return Objects.hash(source, destination, departure, arrival);
+  }
+
+  @Override
+  public String toString(){
+    return source + " (" + formatTime(departure) + " - " + formatTime(arrival)
+      + ") " + destination;
+  }
+}
@@ -0,0 +1,277 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *  The <tt>HubAnalytics</tt> class measures how important each city is as
+ *  a transfer point, counting paths by number of hops:
+ *  betweenness (how many fewest-hops paths between other cities pass
+ *  through it, by Brandes' algorithm), closeness (how few hops it takes to
+ *  reach the cities it can reach, scaled by the share of cities it reaches)
+ *  and articulation points (cities whose loss splits a connected region,
+ *  treating every route as two-way).
+ *  Brandes' algorithm runs one search per source city; sources are spread
+ *  over a fork/join pool and every worker thread adds into its own
+ *  accumulator, so no two threads write to the same array until the
+ *  accumulators are summed at the end. With sampling only a random subset of
+ *  sources is searched and betweenness is scaled up to estimate the full
+ *  value; closeness is then only known for the sampled cities.
+ *  The engine reads an off-heap snapshot of the routes and of the reversed
+ *  routes taken when it is built (see <tt>OffHeapGraph.of</tt>).
+ */
+public class HubAnalytics {
+  private static final int THRESHOLD = 8;  // sources per fork/join leaf
+
+  private final int n;
+  private final OffHeapGraph out;   // the routes out of every city
+  private final OffHeapGraph in;    // the routes into every city
+
+  private double[] betweenness;
+  private double[] closeness;
+  private boolean[] articulation;
+
+  /**
+   * Create an engine over a snapshot of G.
+   */
+  public HubAnalytics(RouteGraph G) {
+    n = G.vertexCount();
+    out = OffHeapGraph.of(G);
+    in = out.reverse();
+  }
+
+  /**
+   * Compute betweenness, closeness and articulation points.
+   * @param samples the number of source cities to search, or a non-positive
+   * number (or one of at least the number of cities) to search them all
+   * @param seed the seed used to pick the sampled sources
+   * @param pool the pool to run the searches on
+   * @param progress told after every finished source, from worker threads;
+   * may be null
+   */
+  public void run(int samples, long seed, ForkJoinPool pool, ProgressListener progress) {
+    int[] sources = new int[n];
+    for (int v = 0; v < n; v++)
+      sources[v] = v;
+    boolean sampled = samples > 0 && samples < n;
+    if (sampled) {
+      Random random = new Random(seed);
+      for (int i = 0; i < samples; i++) {
+        int j = i + random.nextInt(n - i);
+        int t = sources[i]; sources[i] = sources[j]; sources[j] = t;
+      }
+      sources = Arrays.copyOf(sources, samples);
+    }
+
+    betweenness = new double[n];
+    closeness = new double[n];
+    ConcurrentLinkedQueue<Worker> workers = new ConcurrentLinkedQueue<Worker>();
+    ThreadLocal<Worker> local = ThreadLocal.withInitial(() -> {
+      Worker w = new Worker();
+      workers.add(w);
+      return w;
+    });
+    pool.invoke(new Sources(sources, 0, sources.length, local, new AtomicInteger(), progress));
+
+    double scale = sampled ? (double) n / sources.length : 1;
+    for (Worker w : workers) {
+      for (int v = 0; v < n; v++)
+        betweenness[v] += w.bc[v] * scale;
+    }
+    articulation = articulationPoints();
+  }
+
+  public double betweenness(int v) {
+    return betweenness[v];
+  }
+
+  /**
+   * Return the closeness of v, 0 if v reaches no other city or was not
+   * sampled.
+   */
+  public double closeness(int v) {
+    return closeness[v];
+  }
+
+  public boolean isArticulationPoint(int v) {
+    return articulation[v];
+  }
+
+  /**
+   * Write one line per city to fileName: name, betweenness, closeness and
+   * whether it is an articulation point, separated by commas, after a header
+   * line. Lines are encoded into one buffer and written with a file channel.
+   * @param names the city names by id, null for cities to leave out
+   */
+  public void write(String fileName, List<String> names) throws IOException {
+    StringBuilder out = new StringBuilder(64 * (n + 1));
+    out.append("city,betweenness,closeness,articulation\n");
+    for (int v = 0; v < n; v++) {
+      if (names.get(v) == null) continue;
+      out.append(names.get(v)).append(',')
+        .append(betweenness[v]).append(',')
+        .append(closeness[v]).append(',')
+        .append(articulation[v]).append('\n');
+    }
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+           StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+           StandardOpenOption.TRUNCATE_EXISTING)) {
+      java.nio.ByteBuffer bytes = StandardCharsets.UTF_8.encode(out.toString());
+      while (bytes.hasRemaining())
+        channel.write(bytes);
+    }
+  }
+
+  /**
+   * Callback reporting how many source searches are finished.
+   */
+  public interface ProgressListener {
+    public void progress(int done, int total);
+  }
+
+  //iterative Tarjan over the two-way view of the routes
+  private boolean[] articulationPoints() {
+    boolean[] cut = new boolean[n];
+    int[] disc = new int[n];       // discovery time + 1, 0 = not visited
+    int[] low = new int[n];
+    int[] parent = new int[n];
+    int[] next = new int[n];       // next neighbour slot to look at
+    int[] stack = new int[n];
+    int time = 0;
+    for (int root = 0; root < n; root++) {
+      if (disc[root] != 0) continue;
+      int top = 0;
+      stack[top++] = root;
+      parent[root] = -1;
+      disc[root] = low[root] = ++time;
+      next[root] = 0;
+      int rootChildren = 0;
+      while (top > 0) {
+        int v = stack[top - 1];
+        int outDegree = out.firstEdge(v + 1) - out.firstEdge(v);
+        int degree = outDegree + in.firstEdge(v + 1) - in.firstEdge(v);
+        if (next[v] < degree) {
+          int k = next[v]++;
+          int w = k < outDegree ? out.target(out.firstEdge(v) + k)
+                                : in.target(in.firstEdge(v) + k - outDegree);
+          if (disc[w] == 0) {
+            parent[w] = v;
+            disc[w] = low[w] = ++time;
+            next[w] = 0;
+            stack[top++] = w;
+            if (v == root) rootChildren++;
+          } else if (w != parent[v]) {
+            low[v] = Math.min(low[v], disc[w]);
+          }
+          continue;
+        }
+        top--;
+        int p = parent[v];
+        if (p != -1) {
+          low[p] = Math.min(low[p], low[v]);
+          if (p != root && low[v] >= disc[p]) cut[p] = true;
+        }
+      }
+      if (rootChildren > 1) cut[root] = true;
+    }
+    return cut;
+  }
+
+  /**
+   * The arrays of one worker thread. bc only ever grows; the others are
+   * reset after every source for the cities that source reached.
+   */
+  private class Worker {
+    final double[] bc = new double[n];
+    final int[] dist = new int[n];
+    final double[] sigma = new double[n];
+    final double[] delta = new double[n];
+    final int[] order = new int[n];  // cities in BFS order
+
+    Worker() {
+      Arrays.fill(dist, -1);
+    }
+
+    void source(int s) {
+      int head = 0, tail = 0;
+      long sum = 0;
+      dist[s] = 0;
+      sigma[s] = 1;
+      order[tail++] = s;
+      while (head < tail) {
+        int v = order[head++];
+        sum += dist[v];
+        int end = out.firstEdge(v + 1);
+        for (int k = out.firstEdge(v); k < end; k++) {
+          int w = out.target(k);
+          if (dist[w] == -1) {
+            dist[w] = dist[v] + 1;
+            order[tail++] = w;
+          }
+          if (dist[w] == dist[v] + 1) sigma[w] += sigma[v];
+        }
+      }
+      //Wasserman-Faust closeness, comparable between regions of any size
+      if (tail > 1 && n > 1)
+        closeness[s] = (double) (tail - 1) / (n - 1) * (tail - 1) / sum;
+
+      for (int i = tail - 1; i > 0; i--) {
+        int w = order[i];
+        double share = (1 + delta[w]) / sigma[w];
+        int end = in.firstEdge(w + 1);
+        for (int k = in.firstEdge(w); k < end; k++) {
+          int v = in.target(k);
+          if (dist[v] != -1 && dist[v] == dist[w] - 1)
+            delta[v] += sigma[v] * share;
+        }
+        bc[w] += delta[w];
+      }
+      for (int i = 0; i < tail; i++) {
+        int v = order[i];
+        dist[v] = -1;
+        sigma[v] = 0;
+        delta[v] = 0;
+      }
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private class Sources extends RecursiveAction {
+    private final int[] sources;
+    private final int lo, hi;
+    private final ThreadLocal<Worker> local;
+    private final AtomicInteger done;
+    private final ProgressListener progress;
+
+    Sources(int[] sources, int lo, int hi, ThreadLocal<Worker> local,
+            AtomicInteger done, ProgressListener progress) {
+      this.sources = sources;
+      this.lo = lo;
+      this.hi = hi;
+      this.local = local;
+      this.done = done;
+      this.progress = progress;
+    }
+
+    protected void compute() {
+      if (hi - lo > THRESHOLD) {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new Sources(sources, lo, mid, local, done, progress),
+                  new Sources(sources, mid, hi, local, done, progress));
+        return;
+      }
+      Worker worker = local.get();
+      for (int i = lo; i < hi; i++) {
+        worker.source(sources[i]);
+        int d = done.incrementAndGet();
+        if (progress != null) progress.progress(d, sources.length);
+      }
+    }
+  }
+}
@@ -0,0 +1,219 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *  The <tt>Isochrone</tt> class finds every city reachable from an origin
+ *  within a distance or price budget, cheapest first. The search is
+ *  Dijkstra's algorithm that never queues a city beyond the budget, so its
+ *  cost depends on the part of the network inside the budget, not on the
+ *  whole network.
+ *  Searches work in a per-thread workspace whose arrays are reset lazily by
+ *  an epoch stamp and reused by every later search on that thread, so many
+ *  origins can be searched in parallel without allocating per origin.
+ *  The engine reads an off-heap snapshot of the routes taken when it is
+ *  built (see <tt>OffHeapGraph.of</tt>).
+ */
+public class Isochrone {
+  private static final int THRESHOLD = 16;   // origins per fork/join leaf
+
+  //one idle workspace per thread; a running search takes it out
+  private static final ThreadLocal<Workspace> idle = new ThreadLocal<Workspace>();
+
+  private final int n;
+  private final OffHeapGraph out;
+
+  /**
+   * Create an engine over a snapshot of G.
+   */
+  public Isochrone(RouteGraph G) {
+    n = G.vertexCount();
+    out = OffHeapGraph.of(G);
+  }
+
+  /**
+   * Start a search from source. Cities come out of the returned search one
+   * at a time in order of cost, source first; it must be closed (or run to
+   * the end) to give its workspace back.
+   * @param budget the largest total cost to report
+   * @param byPrice true to add up prices, false to add up distances
+   */
+  public Search search(int source, double budget, boolean byPrice) {
+    return new Search(source, budget, byPrice);
+  }
+
+  /**
+   * Search from every origin in parallel on the given pool and report every
+   * (origin, city, cost) found. The visitor is called from several threads
+   * at once.
+   */
+  public void searchAll(int[] origins, double budget, boolean byPrice,
+                        ReachVisitor visitor, ForkJoinPool pool) {
+    pool.invoke(new Origins(origins, 0, origins.length, budget, byPrice, visitor));
+  }
+
+  /**
+   * Callback for <tt>searchAll</tt>.
+   */
+  public interface ReachVisitor {
+    public void visit(int origin, int city, double cost);
+  }
+
+  /**
+   * One running search, advanced by <tt>next</tt>.
+   */
+  public final class Search implements AutoCloseable {
+    private final double budget;
+    private final boolean byPrice;
+    private Workspace ws;
+    private double cost;
+
+    private Search(int source, double budget, boolean byPrice) {
+      this.budget = budget;
+      this.byPrice = byPrice;
+      ws = idle.get();
+      if (ws == null) ws = new Workspace();
+      else idle.set(null);
+      ws.reset(n);
+      if (budget >= 0) ws.improve(source, 0);
+    }
+
+    /**
+     * Settle the next city and return it, or return -1 when no city within
+     * the budget is left.
+     */
+    public int next() {
+      if (ws == null) return -1;
+      while (ws.size > 0) {
+        double d = ws.heapKey[0];
+        int v = ws.pop();
+        if (ws.settled[v] == ws.epoch || d != ws.cost[v]) continue;  // stale entry
+        ws.settled[v] = ws.epoch;
+        int end = out.firstEdge(v + 1);
+        for (int k = out.firstEdge(v); k < end; k++) {
+          double nd = d + (byPrice ? out.price(k) : out.weight(k));
+          if (nd <= budget) ws.improve(out.target(k), nd);
+        }
+        cost = d;
+        return v;
+      }
+      close();
+      return -1;
+    }
+
+    /**
+     * Return the cost of the city last returned by <tt>next</tt>.
+     */
+    public double cost() {
+      return cost;
+    }
+
+    public void close() {
+      if (ws != null) {
+        idle.set(ws);
+        ws = null;
+      }
+    }
+  }
+
+  /**
+   * Cost array, settled marks and binary heap of one thread, valid for the
+   * current epoch only. A slot whose stamp is older than the epoch counts as
+   * unreached, so starting a search is O(1) instead of O(V).
+   */
+  private static class Workspace {
+    int epoch;
+    int[] stamp = new int[0];     // stamp[v] == epoch when cost[v] is valid
+    int[] settled = new int[0];   // settled[v] == epoch once v is final
+    double[] cost = new double[0];
+    double[] heapKey = new double[16];
+    int[] heapV = new int[16];
+    int size;
+
+    void reset(int n) {
+      if (stamp.length < n) {
+        int len = Math.max(n, 2 * stamp.length);
+        stamp = new int[len];
+        settled = new int[len];
+        cost = new double[len];
+        epoch = 0;
+      }
+      if (++epoch == Integer.MAX_VALUE) {
+        Arrays.fill(stamp, 0);
+        Arrays.fill(settled, 0);
+        epoch = 1;
+      }
+      size = 0;
+    }
+
+    void improve(int v, double d) {
+      if (stamp[v] == epoch && cost[v] <= d) return;
+      stamp[v] = epoch;
+      cost[v] = d;
+      if (size == heapKey.length) {
+        heapKey = Arrays.copyOf(heapKey, 2 * size);
+        heapV = Arrays.copyOf(heapV, 2 * size);
+      }
+      int k = size++;
+      while (k > 0 && heapKey[(k - 1) / 2] > d) {
+        heapKey[k] = heapKey[(k - 1) / 2];
+        heapV[k] = heapV[(k - 1) / 2];
+        k = (k - 1) / 2;
+      }
+      heapKey[k] = d;
+      heapV[k] = v;
+    }
+
+    int pop() {
+      int top = heapV[0];
+      double key = heapKey[--size];
+      int v = heapV[size];
+      int k = 0;
+      while (2 * k + 1 < size) {
+        int j = 2 * k + 1;
+        if (j + 1 < size && heapKey[j + 1] < heapKey[j]) j++;
+        if (key <= heapKey[j]) break;
+        heapKey[k] = heapKey[j];
+        heapV[k] = heapV[j];
+        k = j;
+      }
+      heapKey[k] = key;
+      heapV[k] = v;
+      return top;
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private class Origins extends RecursiveAction {
+    private final int[] origins;
+    private final int lo, hi;
+    private final double budget;
+    private final boolean byPrice;
+    private final ReachVisitor visitor;
+
+    Origins(int[] origins, int lo, int hi, double budget, boolean byPrice,
+            ReachVisitor visitor) {
+      this.origins = origins;
+      this.lo = lo;
+      this.hi = hi;
+      this.budget = budget;
+      this.byPrice = byPrice;
+      this.visitor = visitor;
+    }
+
+    protected void compute() {
+      if (hi - lo > THRESHOLD) {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new Origins(origins, lo, mid, budget, byPrice, visitor),
+                  new Origins(origins, mid, hi, budget, byPrice, visitor));
+        return;
+      }
+      for (int i = lo; i < hi; i++) {
+        try (Search s = search(origins[i], budget, byPrice)) {
+          for (int v = s.next(); v != -1; v = s.next())
+            visitor.visit(origins[i], v, s.cost());
+        }
+      }
+    }
+  }
+}
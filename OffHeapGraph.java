@@ -0,0 +1,360 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *  The <tt>OffHeapGraph</tt> class is an immutable snapshot of a route
+ *  network kept outside the Java heap. The search engines copy the network
+ *  into one when they are built (see <tt>of</tt>) and read edges by index
+ *  through <tt>firstEdge</tt>, <tt>target</tt>, <tt>weight</tt> and
+ *  <tt>price</tt> rather than through edge objects; <tt>RouteExport</tt>
+ *  writes one to a file that <tt>open</tt> maps back in.
+ *  It is not the primary store: the live network of <tt>AirlineSystem</tt>
+ *  and its versions stay on the heap, so heap use still grows with the
+ *  network. A snapshot only keeps the engines' own copies from adding edge
+ *  objects for the garbage collector to trace.
+ *  Edges are kept in compressed sparse row form: the edges out of v are
+ *  offsets[v] through offsets[v+1]-1 of the targets, weights and prices
+ *  arrays. Each array lives in its own direct <tt>ByteBuffer</tt>, or in a
+ *  memory-mapped region of a backing file that can later be reopened
+ *  without parsing the routes again. City names stay with
+ *  <tt>AirlineSystem</tt>.
+ *  Every array must fit in one buffer, so at most Integer.MAX_VALUE / 8
+ *  directed edges are supported.
+ */
+public class OffHeapGraph implements RouteGraph {
+  private static final int MAGIC = 0x15010a4d;
+  private static final int HEADER = 16;  // magic, version, v, e
+
+  private final int v;
+  private final int e;
+  private final IntBuffer offsets;  // offsets[v]..offsets[v+1]-1 = edges out of v
+  private final IntBuffer targets;
+  private final IntBuffer weights;
+  private final DoubleBuffer prices;
+
+  private OffHeapGraph(int v, int e, ByteBuffer offsets, ByteBuffer targets,
+                       ByteBuffer weights, ByteBuffer prices) {
+    this.v = v;
+    this.e = e;
+    this.offsets = offsets.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    this.targets = targets.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    this.weights = weights.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    this.prices = prices.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+  }
+
+  /**
+   * Read a route file (same format as <tt>AirlineSystem.loadRoutes</tt>) into
+   * direct buffers. Every route is stored in both directions.
+   */
+  public static OffHeapGraph load(String fileName) throws IOException {
+    return load(fileName, null);
+  }
+
+  /**
+   * Read a route file into a graph backed by the file backing, or by direct
+   * buffers if backing is null. The routes are read twice, once to count
+   * the degrees and once to fill in the edges.
+   */
+  public static OffHeapGraph load(String fileName, File backing)
+          throws IOException {
+    RouteReader in = new RouteReader(fileName);
+    int v = in.v;
+    int[] next = new int[v + 1];
+    long e = 0;
+    while (in.next()) {
+      next[in.from + 1]++;
+      next[in.to + 1]++;
+      e += 2;
+    }
+    in.close();
+    checkSize(e);
+
+    for (int i = 0; i < v; i++)
+      next[i + 1] += next[i];
+    OffHeapGraph G = allocate(v, (int) e, backing);
+    for (int i = 0; i <= v; i++)
+      G.offsets.put(i, next[i]);
+
+    in = new RouteReader(fileName);
+    while (in.next()) {
+      G.put(next[in.from]++, in.to, in.weight, in.price);
+      //reversed edge
+      G.put(next[in.to]++, in.from, in.weight, in.price);
+    }
+    in.close();
+    return G;
+  }
+
+  /**
+   * Copy any route graph, for example an <tt>AirlineSystem.Digraph</tt>, into
+   * direct buffers.
+   */
+  public static OffHeapGraph copyOf(RouteGraph source) throws IOException {
+    int v = source.vertexCount();
+    checkSize(source.edgeCount());
+    OffHeapGraph G = allocate(v, source.edgeCount(), null);
+    int[] k = new int[1];
+    for (int i = 0; i < v; i++) {
+      G.offsets.put(i, k[0]);
+      source.forEachEdge(i, (from, to, weight, price) -> G.put(k[0]++, to, weight, price));
+    }
+    G.offsets.put(v, k[0]);
+    return G;
+  }
+
+  /**
+   * Return G itself if it is an off-heap graph already, otherwise a copy of
+   * it in direct buffers.
+   */
+  public static OffHeapGraph of(RouteGraph G) {
+    if (G instanceof OffHeapGraph) return (OffHeapGraph) G;
+    try {
+      return copyOf(G);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Return a copy of this graph, in direct buffers, with every edge
+   * reversed. The edges into each vertex come out in ascending order of the
+   * vertex they leave.
+   */
+  public OffHeapGraph reverse() {
+    int[] next = new int[v + 1];
+    for (int k = 0; k < e; k++)
+      next[targets.get(k) + 1]++;
+    for (int i = 0; i < v; i++)
+      next[i + 1] += next[i];
+    OffHeapGraph R = allocateDirect(v, e);
+    for (int i = 0; i <= v; i++)
+      R.offsets.put(i, next[i]);
+    for (int from = 0; from < v; from++) {
+      int end = offsets.get(from + 1);
+      for (int k = offsets.get(from); k < end; k++)
+        R.put(next[targets.get(k)]++, from, weights.get(k), prices.get(k));
+    }
+    return R;
+  }
+
+  /**
+   * Reopen a graph that an earlier <tt>load</tt> wrote to backing.
+   */
+  public static OffHeapGraph open(File backing) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(backing, "r")) {
+      FileChannel channel = file.getChannel();
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER)
+        .order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getInt(0) != MAGIC)
+        throw new IOException(backing + " is not an off-heap route graph");
+      int v = header.getInt(8);
+      int e = header.getInt(12);
+      return map(channel, FileChannel.MapMode.READ_ONLY, v, e);
+    }
+  }
+
+  /**
+   * Write any route graph to file in the backing file format, so that
+   * <tt>open</tt> can map it later. The four arrays are filled in one pass
+   * over the edges, each through its own small buffer written to its region
+   * of the file, so nothing of the size of the graph is held in memory.
+   */
+  public static void save(RouteGraph source, File file) throws IOException {
+    int v = source.vertexCount();
+    int e = source.edgeCount();
+    checkSize(e);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+           StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(1).putInt(v).putInt(e).flip();
+      channel.write(header, 0);
+      Region offsets = new Region(channel, HEADER);
+      Region targets = new Region(channel, HEADER + 4L * (v + 1));
+      Region weights = new Region(channel, targets.position + 4L * e);
+      Region prices = new Region(channel, weights.position + 4L * e);
+      int[] k = new int[1];
+      IOException[] failed = new IOException[1];
+      for (int i = 0; i < v; i++) {
+        offsets.putInt(k[0]);
+        source.forEachEdge(i, (from, to, weight, price) -> {
+          try {
+            targets.putInt(to);
+            weights.putInt(weight);
+            prices.putDouble(price);
+            k[0]++;
+          } catch (IOException x) {
+            failed[0] = x;
+          }
+        });
+        if (failed[0] != null) throw failed[0];
+      }
+      offsets.putInt(k[0]);
+      if (k[0] != e)
+        throw new IOException("graph changed while it was saved");
+      offsets.flush();
+      targets.flush();
+      weights.flush();
+      prices.flush();
+    }
+  }
+
+  //every array must fit in one buffer, the prices taking 8 bytes per edge
+  private static void checkSize(long e) throws IOException {
+    if (e > Integer.MAX_VALUE / 8)
+      throw new IOException("too many routes for an off-heap graph: " + e / 2);
+  }
+
+  private static OffHeapGraph allocate(int v, int e, File backing)
+          throws IOException {
+    if (backing == null) return allocateDirect(v, e);
+    try (RandomAccessFile file = new RandomAccessFile(backing, "rw")) {
+      FileChannel channel = file.getChannel();
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER)
+        .order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(0, MAGIC);
+      header.putInt(4, 1);
+      header.putInt(8, v);
+      header.putInt(12, e);
+      return map(channel, FileChannel.MapMode.READ_WRITE, v, e);
+    }
+  }
+
+  private static OffHeapGraph allocateDirect(int v, int e) {
+    return new OffHeapGraph(v, e,
+      ByteBuffer.allocateDirect(4 * (v + 1)),
+      ByteBuffer.allocateDirect(4 * e),
+      ByteBuffer.allocateDirect(4 * e),
+      ByteBuffer.allocateDirect(8 * e));
+  }
+
+  //the mappings stay valid after the channel is closed
+  private static OffHeapGraph map(FileChannel channel, FileChannel.MapMode mode,
+                                  int v, int e) throws IOException {
+    long pos = HEADER;
+    ByteBuffer offsets = channel.map(mode, pos, 4L * (v + 1));
+    pos += 4L * (v + 1);
+    ByteBuffer targets = channel.map(mode, pos, 4L * e);
+    pos += 4L * e;
+    ByteBuffer weights = channel.map(mode, pos, 4L * e);
+    pos += 4L * e;
+    ByteBuffer prices = channel.map(mode, pos, 8L * e);
+    return new OffHeapGraph(v, e, offsets, targets, weights, prices);
+  }
+
+  private void put(int edge, int to, int weight, double price) {
+    targets.put(edge, to);
+    weights.put(edge, weight);
+    prices.put(edge, price);
+  }
+
+  public int vertexCount() {
+    return v;
+  }
+
+  public int edgeCount() {
+    return e;
+  }
+
+  /**
+   * Return the index of the first edge out of vertex v; the edges out of v
+   * are firstEdge(v) through firstEdge(v+1)-1.
+   */
+  public int firstEdge(int v) {
+    return offsets.get(v);
+  }
+
+  /**
+   * Return the vertex edge k leads to.
+   */
+  public int target(int k) {
+    return targets.get(k);
+  }
+
+  public int weight(int k) {
+    return weights.get(k);
+  }
+
+  public double price(int k) {
+    return prices.get(k);
+  }
+
+  public void forEachEdge(int from, EdgeVisitor visitor) {
+    int end = offsets.get(from + 1);
+    for (int k = offsets.get(from); k < end; k++)
+      visitor.visit(from, targets.get(k), weights.get(k), prices.get(k));
+  }
+
+  /**
+   * A buffered writer for one array region of a file being saved.
+   */
+  private static class Region {
+    private final FileChannel channel;
+    private final ByteBuffer buffer =
+      ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private long position;
+
+    Region(FileChannel channel, long position) {
+      this.channel = channel;
+      this.position = position;
+    }
+
+    void putInt(int x) throws IOException {
+      if (buffer.remaining() < 4) flush();
+      buffer.putInt(x);
+    }
+
+    void putDouble(double x) throws IOException {
+      if (buffer.remaining() < 8) flush();
+      buffer.putDouble(x);
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining())
+        position += channel.write(buffer, position);
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Reads the routes of a route file one at a time without building
+   * per-route objects.
+   */
+  private static class RouteReader {
+    private final BufferedReader reader;
+    private final StreamTokenizer tokens;
+    final int v;
+    int from, to, weight;
+    double price;
+
+    RouteReader(String fileName) throws IOException {
+      reader = new BufferedReader(new FileReader(fileName));
+      v = Integer.parseInt(reader.readLine().trim());
+      //skip the city names
+      for (int i = 0; i < v; i++)
+        reader.readLine();
+      tokens = new StreamTokenizer(reader);
+    }
+
+    boolean next() throws IOException {
+      if (tokens.nextToken() == StreamTokenizer.TT_EOF) return false;
+      from = (int) tokens.nval - 1;
+      tokens.nextToken();
+      to = (int) tokens.nval - 1;
+      tokens.nextToken();
+      weight = (int) tokens.nval;
+      tokens.nextToken();
+      price = tokens.nval;
+      return true;
+    }
+
+    void close() throws IOException {
+      reader.close();
+    }
+  }
+}
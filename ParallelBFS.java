@@ -0,0 +1,229 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *  The <tt>ParallelBFS</tt> class computes fewest-hops paths from one
+ *  vertex to every other vertex of a <tt>RouteGraph</tt>. Frontiers are <tt>long[]</tt> bitsets and
+ *  every level is expanded on a fork/join pool, either top-down (frontier
+ *  vertices push to their neighbours) or bottom-up (unvisited vertices look
+ *  for a parent in the frontier), whichever touches fewer edges.
+ *  The engine reads an off-heap snapshot of the routes and of the reversed
+ *  routes taken when it is built (see <tt>OffHeapGraph.of</tt>), so it suits
+ *  whole-graph searches; a search for one destination is cheaper with
+ *  <tt>ShortestPaths.bfs</tt>, which can stop as soon as it gets there.
+ *  Among several parents on the previous level, the one with the smallest
+ *  index is kept, so the paths found do not depend on scheduling.
+ */
+public class ParallelBFS {
+  private static final int INFINITY = Integer.MAX_VALUE;
+  private static final int ALPHA = 14;       // switch to bottom-up when m_f > m_u / ALPHA
+  private static final int BETA = 24;        // switch back when n_f < n / BETA
+  private static final int THRESHOLD = 64;   // bitset words per fork/join leaf
+
+  private final ForkJoinPool pool;
+  private final int n, m;
+  private final int words;
+  private final OffHeapGraph out;      // the edges out of every vertex
+  private final OffHeapGraph in;       // the edges into every vertex, tails ascending
+
+  /**
+   * Create a BFS engine over a snapshot of G using the common fork/join pool.
+   */
+  public ParallelBFS(RouteGraph G) {
+    this(G, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Create a BFS engine over a snapshot of G that runs on the given pool.
+   */
+  public ParallelBFS(RouteGraph G, ForkJoinPool pool) {
+    this.pool = pool;
+    this.n = G.vertexCount();
+    this.m = G.edgeCount();
+    this.words = (n + 63) >>> 6;
+    out = OffHeapGraph.of(G);
+    in = out.reverse();
+  }
+
+  /**
+   * Compute fewest-hops paths from source to every vertex reachable from it.
+   * Every call has its own state, so several threads can run searches on
+   * the same engine at once.
+   */
+  public Paths run(int source) {
+    Paths paths = new Paths();
+    paths.search(source);
+    return paths;
+  }
+
+  private static void set(long[] bits, int v) {
+    bits[v >>> 6] |= 1L << v;
+  }
+
+  private static boolean isSet(long[] bits, int v) {
+    return (bits[v >>> 6] & (1L << v)) != 0;
+  }
+
+  /**
+   * The fewest-hops paths from the source of one search.
+   */
+  public class Paths {
+    private final int[] distTo = new int[n];    // distTo[v] = number of edges on shortest s-v path
+    private final AtomicIntegerArray edgeTo = new AtomicIntegerArray(n);  // previous vertex on shortest s-v path
+    private final long[] visited = new long[words];
+    private final long[] frontier = new long[words];
+    private final AtomicLongArray next = new AtomicLongArray(words);
+
+    private Paths() { }
+
+    private void search(int source) {
+      for (int i = 0; i < n; i++) {
+        distTo[i] = INFINITY;
+        edgeTo.set(i, INFINITY);
+      }
+
+      distTo[source] = 0;
+      set(visited, source);
+      set(frontier, source);
+      long frontierCount = 1;
+      long frontierEdges = out.firstEdge(source + 1) - out.firstEdge(source);
+      long unexploredEdges = m - frontierEdges;
+      boolean bottomUp = false;
+
+      for (int level = 1; frontierCount > 0; level++) {
+        if (!bottomUp && frontierEdges > unexploredEdges / ALPHA)
+          bottomUp = true;
+        else if (bottomUp && frontierCount < n / BETA)
+          bottomUp = false;
+
+        if (bottomUp)
+          pool.invoke(new BottomUp(level, 0, words));
+        else
+          pool.invoke(new TopDown(level, 0, words));
+
+        frontierCount = 0;
+        frontierEdges = 0;
+        for (int w = 0; w < words; w++) {
+          long bits = next.get(w);
+          next.set(w, 0);
+          frontier[w] = bits;
+          visited[w] |= bits;
+          frontierCount += Long.bitCount(bits);
+          while (bits != 0) {
+            int v = (w << 6) + Long.numberOfTrailingZeros(bits);
+            frontierEdges += out.firstEdge(v + 1) - out.firstEdge(v);
+            bits &= bits - 1;
+          }
+        }
+        unexploredEdges -= frontierEdges;
+      }
+    }
+
+    /**
+     * Is there a path from the source to vertex v?
+     */
+    public boolean hasPathTo(int v) {
+      return distTo[v] != INFINITY;
+    }
+
+    /**
+     * Return the number of edges on the fewest-hops path from the source to v.
+     */
+    public int distTo(int v) {
+      return distTo[v];
+    }
+
+    /**
+     * Return the vertex before v on the fewest-hops path from the source.
+     */
+    public int edgeTo(int v) {
+      return edgeTo.get(v);
+    }
+
+    /**
+     * Frontier vertices in words [lo, hi) push to their unvisited neighbours.
+     */
+    @SuppressWarnings("serial")
+    private class TopDown extends RecursiveAction {
+      private final int level, lo, hi;
+
+      TopDown(int level, int lo, int hi) {
+        this.level = level;
+        this.lo = lo;
+        this.hi = hi;
+      }
+
+      protected void compute() {
+        if (hi - lo > THRESHOLD) {
+          int mid = (lo + hi) >>> 1;
+          invokeAll(new TopDown(level, lo, mid), new TopDown(level, mid, hi));
+          return;
+        }
+        for (int w = lo; w < hi; w++) {
+          long bits = frontier[w];
+          while (bits != 0) {
+            int v = (w << 6) + Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+            int end = out.firstEdge(v + 1);
+            for (int k = out.firstEdge(v); k < end; k++) {
+              int x = out.target(k);
+              if (isSet(visited, x)) continue;
+              long mask = 1L << x;
+              long old = next.get(x >>> 6);
+              while ((old & mask) == 0 && !next.compareAndSet(x >>> 6, old, old | mask))
+                old = next.get(x >>> 6);
+              distTo[x] = level;
+              int p = edgeTo.get(x);
+              while (v < p && !edgeTo.compareAndSet(x, p, v))
+                p = edgeTo.get(x);
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Unvisited vertices in words [lo, hi) look for a parent in the frontier.
+     */
+    @SuppressWarnings("serial")
+    private class BottomUp extends RecursiveAction {
+      private final int level, lo, hi;
+
+      BottomUp(int level, int lo, int hi) {
+        this.level = level;
+        this.lo = lo;
+        this.hi = hi;
+      }
+
+      protected void compute() {
+        if (hi - lo > THRESHOLD) {
+          int mid = (lo + hi) >>> 1;
+          invokeAll(new BottomUp(level, lo, mid), new BottomUp(level, mid, hi));
+          return;
+        }
+        for (int w = lo; w < hi; w++) {
+          long found = 0;
+          long unvisited = ~visited[w];
+          while (unvisited != 0) {
+            int x = (w << 6) + Long.numberOfTrailingZeros(unvisited);
+            unvisited &= unvisited - 1;
+            if (x >= n) break;
+            int end = in.firstEdge(x + 1);
+            for (int k = in.firstEdge(x); k < end; k++) {
+              int v = in.target(k);
+              if (isSet(frontier, v)) {
+                distTo[x] = level;
+                edgeTo.set(x, v);
+                found |= 1L << x;
+                break;
+              }
+            }
+          }
+          next.set(w, found);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,389 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.*;
+
+/**
+ *  The <tt>PartitionCoordinator</tt> class splits a route network into
+ *  regions, hands every region to a <tt>RegionWorker</tt> and answers
+ *  shortest-distance queries through an overlay graph of boundary cities
+ *  (cities with a route into another region).
+ *  The overlay holds the routes that cross regions and, for every region,
+ *  the precomputed shortest distance between each pair of its boundary
+ *  cities. A query adds the source and destination to the overlay with
+ *  distances asked from their workers, runs Dijkstra on the overlay and asks
+ *  the workers to expand every in-region hop into cities.
+ *  Workers run either on threads of this process or as separate
+ *  <tt>java RegionWorker</tt> processes on the same machine; those are
+ *  destroyed by <tt>shutdown</tt>, or by a shutdown hook if this JVM exits
+ *  first, and exit by themselves if this JVM is killed.
+ *  The coordinator works on a snapshot; rebuild it after the network changes.
+ */
+public class PartitionCoordinator {
+  private static final int INFINITY = Integer.MAX_VALUE;
+
+  private final int n;
+  private final int[] region;          // region[v] = region of city v
+  private final int[][] boundaries;    // boundaries[r] = boundary cities of region r
+  private final Map<Integer, Integer> overlayId = new HashMap<Integer, Integer>();
+  private final int[] overlayCity;     // overlayCity[i] = city of overlay node i
+  private final List<List<int[]>> overlayAdj;  // {to node, weight, region or -1 if crossing}
+
+  private final Connection[] workers;
+  private final RegionWorker[] threadWorkers;
+  private final Process[] processes;
+  private final Thread reaper;         // destroys the worker processes at exit
+
+  /**
+   * Partition G into the given number of regions and start one worker for
+   * each.
+   * @param G the route network
+   * @param regions the number of regions
+   * @param separateProcesses true to start every worker as its own JVM
+   * process, false to run them on threads of this one
+   */
+  public PartitionCoordinator(RouteGraph G, int regions, boolean separateProcesses)
+          throws IOException {
+    if (regions <= 0) throw new IllegalArgumentException("regions must be positive");
+    n = G.vertexCount();
+    region = partition(G, regions);
+    int k = 0;
+    for (int v = 0; v < n; v++)
+      k = Math.max(k, region[v] + 1);
+    regions = k;
+
+    //collect in-region routes per region and find the boundary cities
+    boolean[] boundary = new boolean[n];
+    List<List<int[]>> inner = new ArrayList<List<int[]>>(regions);
+    for (int r = 0; r < regions; r++)
+      inner.add(new ArrayList<int[]>());
+    ArrayList<int[]> crossing = new ArrayList<int[]>();
+    for (int v = 0; v < n; v++) {
+      G.forEachEdge(v, (from, to, weight, price) -> {
+        if (region[from] == region[to]) {
+          inner.get(region[from]).add(new int[] {from, to, weight});
+        } else {
+          boundary[from] = true;
+          boundary[to] = true;
+          crossing.add(new int[] {from, to, weight});
+        }
+      });
+    }
+
+    int[] boundaryCount = new int[regions];
+    for (int v = 0; v < n; v++)
+      if (boundary[v]) boundaryCount[region[v]]++;
+    boundaries = new int[regions][];
+    for (int r = 0; r < regions; r++)
+      boundaries[r] = new int[boundaryCount[r]];
+    int[] pos = new int[regions];
+    for (int v = 0; v < n; v++) {
+      if (boundary[v]) {
+        boundaries[region[v]][pos[region[v]]++] = v;
+        overlayId.put(v, overlayId.size());
+      }
+    }
+    overlayCity = new int[overlayId.size()];
+    for (Map.Entry<Integer, Integer> e : overlayId.entrySet())
+      overlayCity[e.getValue()] = e.getKey();
+
+    //start the workers
+    workers = new Connection[regions];
+    threadWorkers = separateProcesses ? null : new RegionWorker[regions];
+    processes = separateProcesses ? new Process[regions] : null;
+    reaper = separateProcesses ? new Thread(this::destroyProcesses, "partition-reaper") : null;
+    if (reaper != null) Runtime.getRuntime().addShutdownHook(reaper);
+    overlayAdj = new ArrayList<List<int[]>>(overlayCity.length + 2);
+    try {
+      int[] members = new int[regions];
+      for (int v = 0; v < n; v++)
+        members[region[v]]++;
+      for (int r = 0; r < regions; r++) {
+        int[] cities = new int[members[r]];
+        int c = 0;
+        for (int v = 0; v < n; v++)
+          if (region[v] == r) cities[c++] = v;
+        int port = separateProcesses ? startProcess(r, cities, inner.get(r))
+                                     : startThread(r, cities, inner.get(r));
+        workers[r] = new Connection(port);
+      }
+
+      //overlay: crossing routes plus boundary-to-boundary distances per region
+      for (int i = 0; i < overlayCity.length + 2; i++)
+        overlayAdj.add(new ArrayList<int[]>());
+      for (int[] e : crossing)
+        overlayAdj.get(overlayId.get(e[0])).add(new int[] {overlayId.get(e[1]), e[2], -1});
+      for (int r = 0; r < regions; r++) {
+        for (int b : boundaries[r]) {
+          int[] dist = workers[r].distances("DIST", b, boundaries[r]);
+          for (int i = 0; i < dist.length; i++) {
+            if (dist[i] > 0)
+              overlayAdj.get(overlayId.get(b)).add(new int[] {overlayId.get(boundaries[r][i]), dist[i], r});
+          }
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      //do not leave the workers started so far running
+      shutdown();
+      throw e;
+    }
+  }
+
+  /**
+   * Return the region city v was assigned to.
+   */
+  public int region(int v) {
+    return region[v];
+  }
+
+  /**
+   * Find a shortest-distance path between two cities through the overlay.
+   * @return the cities on the path from source to destination, or null if
+   * there is none
+   */
+  public int[] shortestPath(int source, int destination) throws IOException {
+    if (source == destination) return new int[] {source};
+    int rs = region[source], rt = region[destination];
+    int S = overlayCity.length, T = S + 1;  // query nodes
+
+    //source to the boundaries of its region (and to destination if it is there)
+    int[] targets = rs == rt ? Arrays.copyOf(boundaries[rs], boundaries[rs].length + 1)
+                             : boundaries[rs];
+    if (rs == rt) targets[targets.length - 1] = destination;
+    int[] fromSource = workers[rs].distances("DIST", source, targets);
+    //boundaries of the destination region to destination
+    int[] toDest = workers[rt].distances("RDIST", destination, boundaries[rt]);
+    int[] destLink = new int[overlayCity.length];
+    Arrays.fill(destLink, INFINITY);
+    for (int i = 0; i < toDest.length; i++)
+      if (toDest[i] >= 0) destLink[overlayId.get(boundaries[rt][i])] = toDest[i];
+
+    int N = S + 2;
+    int[] dist = new int[N];
+    int[] edgeTo = new int[N];
+    int[] hopRegion = new int[N];   // region of the hop into a node, -1 if crossing
+    Arrays.fill(dist, INFINITY);
+    dist[S] = 0;
+    PriorityQueue<long[]> pq = new PriorityQueue<long[]>((a, b) -> Long.compare(a[0], b[0]));
+    pq.add(new long[] {0, S});
+    while (!pq.isEmpty()) {
+      long[] top = pq.poll();
+      int x = (int) top[1];
+      if (top[0] != dist[x]) continue;
+      if (x == T) break;
+      if (x == S) {
+        for (int i = 0; i < targets.length; i++) {
+          if (fromSource[i] < 0) continue;
+          int y = targets[i] == destination && i == targets.length - 1 && rs == rt
+                  ? T : overlayId.get(targets[i]);
+          relax(pq, dist, edgeTo, hopRegion, x, y, fromSource[i], rs);
+        }
+        continue;
+      }
+      for (int[] e : overlayAdj.get(x))
+        relax(pq, dist, edgeTo, hopRegion, x, e[0], e[1], e[2]);
+      if (destLink[x] != INFINITY)
+        relax(pq, dist, edgeTo, hopRegion, x, T, destLink[x], rt);
+    }
+    if (dist[T] == INFINITY) return null;
+
+    //walk back over the overlay, then expand the in-region hops
+    ArrayList<Integer> nodes = new ArrayList<Integer>();
+    for (int x = T; x != S; x = edgeTo[x])
+      nodes.add(x);
+    Collections.reverse(nodes);
+    ArrayList<Integer> path = new ArrayList<Integer>();
+    path.add(source);
+    int prev = source;
+    for (int x : nodes) {
+      int city = x == T ? destination : overlayCity[x];
+      if (hopRegion[x] < 0) {
+        path.add(city);
+      } else if (city != prev) {
+        int[] leg = workers[hopRegion[x]].path(prev, city);
+        for (int i = 1; i < leg.length; i++)
+          path.add(leg[i]);
+      }
+      prev = city;
+    }
+    int[] result = new int[path.size()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = path.get(i);
+    return result;
+  }
+
+  /**
+   * Stop every worker.
+   */
+  public void shutdown() {
+    for (Connection c : workers) {
+      if (c != null) c.close();
+    }
+    if (threadWorkers != null) {
+      for (RegionWorker w : threadWorkers) {
+        try {
+          if (w != null) w.close();
+        } catch (IOException e) {
+          //already closed
+        }
+      }
+    }
+    destroyProcesses();
+    if (reaper != null) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(reaper);
+      } catch (IllegalStateException e) {
+        //already shutting down; the hook destroys the processes
+      }
+    }
+  }
+
+  private void destroyProcesses() {
+    if (processes != null) {
+      for (Process p : processes) {
+        if (p != null) p.destroy();
+      }
+    }
+  }
+
+  private static void relax(PriorityQueue<long[]> pq, int[] dist, int[] edgeTo,
+                            int[] hopRegion, int x, int y, int w, int r) {
+    if (dist[x] + w < dist[y]) {
+      dist[y] = dist[x] + w;
+      edgeTo[y] = x;
+      hopRegion[y] = r;
+      pq.add(new long[] {dist[y], y});
+    }
+  }
+
+  /**
+   * Cut a breadth-first ordering of all cities into regions of about
+   * V / regions consecutive cities, so that regions are mostly connected and
+   * few routes cross them.
+   */
+  private static int[] partition(RouteGraph G, int regions) {
+    int n = G.vertexCount();
+    int target = Math.max(1, (n + regions - 1) / regions);
+    boolean[] marked = new boolean[n];
+    int[] order = new int[n];
+    int[] tail = new int[1];
+    int head = 0;
+    for (int seed = 0; seed < n; seed++) {
+      if (marked[seed]) continue;
+      marked[seed] = true;
+      order[tail[0]++] = seed;
+      while (head < tail[0]) {
+        G.forEachEdge(order[head++], (from, to, weight, price) -> {
+          if (!marked[to]) {
+            marked[to] = true;
+            order[tail[0]++] = to;
+          }
+        });
+      }
+    }
+    int[] region = new int[n];
+    for (int i = 0; i < n; i++)
+      region[order[i]] = Math.min(i / target, regions - 1);
+    return region;
+  }
+
+  private int startThread(int r, int[] cities, List<int[]> routes)
+          throws IOException {
+    int m = routes.size();
+    int[] from = new int[m], to = new int[m], weight = new int[m];
+    for (int k = 0; k < m; k++) {
+      from[k] = routes.get(k)[0];
+      to[k] = routes.get(k)[1];
+      weight[k] = routes.get(k)[2];
+    }
+    RegionWorker worker = new RegionWorker(cities, from, to, weight, 0);
+    threadWorkers[r] = worker;
+    Thread t = new Thread(worker, "region-" + r);
+    t.setDaemon(true);
+    t.start();
+    return worker.port();
+  }
+
+  private int startProcess(int r, int[] cities, List<int[]> routes)
+          throws IOException {
+    File file = File.createTempFile("region" + r + "-", ".txt");
+    file.deleteOnExit();
+    PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+    out.println(cities.length);
+    for (int v : cities)
+      out.println(v);
+    out.println(routes.size());
+    for (int[] e : routes)
+      out.println(e[0] + " " + e[1] + " " + e[2]);
+    out.close();
+
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+      "RegionWorker", file.getPath());
+    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+    Process p = pb.start();
+    processes[r] = p;
+    BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+    String line = in.readLine();
+    if (line == null) throw new IOException("worker for region " + r + " did not start");
+    return Integer.parseInt(line.trim());
+  }
+
+  /**
+   * One request/response connection to a worker, shared by all queries.
+   */
+  private static class Connection {
+    private final Socket socket;
+    private final BufferedReader in;
+    private final PrintWriter out;
+
+    Connection(int port) throws IOException {
+      socket = new Socket(InetAddress.getLoopbackAddress(), port);
+      in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+      out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+    }
+
+    synchronized String request(String line) throws IOException {
+      out.println(line);
+      out.flush();
+      String reply = in.readLine();
+      if (reply == null) throw new IOException("worker closed the connection");
+      if (reply.startsWith("ERROR")) throw new IOException(reply);
+      return reply;
+    }
+
+    int[] distances(String command, int city, int[] others) throws IOException {
+      if (others.length == 0) return new int[0];
+      StringBuilder sb = new StringBuilder(command).append(' ').append(city);
+      for (int v : others)
+        sb.append(' ').append(v);
+      return parse(request(sb.toString()));
+    }
+
+    int[] path(int source, int destination) throws IOException {
+      return parse(request("PATH " + source + " " + destination));
+    }
+
+    void close() {
+      try {
+        synchronized (this) {
+          out.println("QUIT");
+          out.flush();
+        }
+        socket.close();
+      } catch (IOException e) {
+        //already closed
+      }
+    }
+
+    private static int[] parse(String line) {
+      line = line.trim();
+      if (line.isEmpty()) return new int[0];
+      String[] words = line.split(" ");
+      int[] result = new int[words.length];
+      for (int i = 0; i < words.length; i++)
+        result[i] = Integer.parseInt(words[i]);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,32 @@
+import java.util.Objects;
+
+/**
+ *  The <tt>QueryResult</tt> class is the answer of a budgeted query. When
+ *  the search finished, <tt>value</tt> is the same answer the unbounded
+ *  query gives. Otherwise it holds the best itinerary found before the
+ *  budget ran out, which need not be optimal, or is empty if the
+ *  destination was not reached yet.
+ */
+final public class QueryResult<T> {
+  public final SearchBudget.Outcome outcome;
+  public final T value;
+  public final long settled;  // vertices the search settled
+
+  public QueryResult(SearchBudget.Outcome outcome, T value, long settled){
+    this.outcome = outcome;
+    this.value = value;
+    this.settled = settled;
+  }
+
+  /**
+   * Is value the exact answer?
+   */
+  public boolean isComplete(){
+    return outcome == SearchBudget.Outcome.COMPLETE;
+  }
+
+  @Override
+  public String toString(){
+    return outcome + " after " + settled + " cities: " + Objects.toString(value);
+  }
+}
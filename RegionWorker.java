@@ -0,0 +1,244 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ *  The <tt>RegionWorker</tt> class serves shortest-path queries inside one
+ *  region of a partitioned route network. It only knows the cities of its
+ *  region and the routes between them, and answers a line-based protocol on
+ *  a local socket. Cities are named by their global index everywhere.
+ *  <ul>
+ *  <li><tt>DIST s t1 t2 ...</tt>: distances from s to each ti, -1 if none</li>
+ *  <li><tt>RDIST t s1 s2 ...</tt>: distances from each si to t, -1 if none</li>
+ *  <li><tt>PATH s t</tt>: the cities on a shortest s-t path, empty if none</li>
+ *  <li><tt>QUIT</tt>: close the connection</li>
+ *  </ul>
+ *  A worker runs in its own process through <tt>main</tt>, or on a thread of
+ *  the coordinator.
+ */
+public class RegionWorker implements Runnable {
+  private static final int INFINITY = Integer.MAX_VALUE;
+
+  private final ServerSocket server;
+  private final int[] globalIds;         // sorted; local index = position
+  private final int[] outStart, outTo, outW;
+  private final int[] inStart, inFrom, inW;
+
+  /**
+   * Create a worker listening on port (0 for any free port) for the region
+   * made of the given cities and the routes between them.
+   * @param cities the global indices of the cities in the region
+   * @param from the global source of each route
+   * @param to the global destination of each route
+   * @param weight the distance of each route
+   */
+  public RegionWorker(int[] cities, int[] from, int[] to, int[] weight,
+                      int port) throws IOException {
+    globalIds = cities.clone();
+    Arrays.sort(globalIds);
+    int n = globalIds.length;
+    int m = from.length;
+    outStart = new int[n + 1];
+    inStart = new int[n + 1];
+    for (int k = 0; k < m; k++) {
+      outStart[local(from[k]) + 1]++;
+      inStart[local(to[k]) + 1]++;
+    }
+    for (int v = 0; v < n; v++) {
+      outStart[v + 1] += outStart[v];
+      inStart[v + 1] += inStart[v];
+    }
+    outTo = new int[m];
+    outW = new int[m];
+    inFrom = new int[m];
+    inW = new int[m];
+    int[] outPos = Arrays.copyOf(outStart, n);
+    int[] inPos = Arrays.copyOf(inStart, n);
+    for (int k = 0; k < m; k++) {
+      int u = local(from[k]), v = local(to[k]);
+      outTo[outPos[u]] = v;
+      outW[outPos[u]++] = weight[k];
+      inFrom[inPos[v]] = u;
+      inW[inPos[v]++] = weight[k];
+    }
+    server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+  }
+
+  /**
+   * Read a region file written by <tt>PartitionCoordinator</tt>: the number of
+   * cities, their global indices, the number of routes, then one
+   * "from to distance" line per route.
+   */
+  public static RegionWorker load(String fileName, int port) throws IOException {
+    BufferedReader in = new BufferedReader(new FileReader(fileName));
+    StreamTokenizer tokens = new StreamTokenizer(in);
+    tokens.nextToken();
+    int[] cities = new int[(int) tokens.nval];
+    for (int i = 0; i < cities.length; i++) {
+      tokens.nextToken();
+      cities[i] = (int) tokens.nval;
+    }
+    tokens.nextToken();
+    int m = (int) tokens.nval;
+    int[] from = new int[m], to = new int[m], weight = new int[m];
+    for (int k = 0; k < m; k++) {
+      tokens.nextToken();
+      from[k] = (int) tokens.nval;
+      tokens.nextToken();
+      to[k] = (int) tokens.nval;
+      tokens.nextToken();
+      weight[k] = (int) tokens.nval;
+    }
+    in.close();
+    return new RegionWorker(cities, from, to, weight, port);
+  }
+
+  /**
+   * Return the port this worker listens on.
+   */
+  public int port() {
+    return server.getLocalPort();
+  }
+
+  /**
+   * Accept connections until the worker is closed; each connection is
+   * served on its own thread.
+   */
+  public void run() {
+    while (!server.isClosed()) {
+      try {
+        Socket socket = server.accept();
+        Thread t = new Thread(() -> serve(socket), "region-worker-" + port());
+        t.setDaemon(true);
+        t.start();
+      } catch (IOException e) {
+        //closed
+      }
+    }
+  }
+
+  /**
+   * Stop accepting connections.
+   */
+  public void close() throws IOException {
+    server.close();
+  }
+
+  private void serve(Socket socket) {
+    try (Socket s = socket;
+         BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+         PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(s.getOutputStream())))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] words = line.trim().split("\\s+");
+        if (words[0].equals("QUIT")) break;
+        out.println(answer(words));
+        out.flush();
+      }
+    } catch (IOException e) {
+      //coordinator went away
+    }
+  }
+
+  private String answer(String[] words) {
+    StringBuilder sb = new StringBuilder();
+    switch (words[0]) {
+      case "DIST":
+      case "RDIST": {
+        boolean reverse = words[0].equals("RDIST");
+        int[] dist = dijkstra(local(Integer.parseInt(words[1])), reverse, null);
+        for (int i = 2; i < words.length; i++) {
+          int v = local(Integer.parseInt(words[i]));
+          if (sb.length() > 0) sb.append(' ');
+          sb.append(v < 0 || dist[v] == INFINITY ? -1 : dist[v]);
+        }
+        return sb.toString();
+      }
+      case "PATH": {
+        int s = local(Integer.parseInt(words[1]));
+        int t = local(Integer.parseInt(words[2]));
+        int[] edgeTo = new int[globalIds.length];
+        int[] dist = dijkstra(s, false, edgeTo);
+        if (t < 0 || dist[t] == INFINITY) return "";
+        for (int x = t; x != s; x = edgeTo[x])
+          sb.insert(0, " " + globalIds[x]);
+        return globalIds[s] + sb.toString();
+      }
+      default:
+        return "ERROR unknown command " + words[0];
+    }
+  }
+
+  //heap-based Dijkstra over the region, on reversed routes if reverse
+  private int[] dijkstra(int source, boolean reverse, int[] edgeTo) {
+    int n = globalIds.length;
+    int[] dist = new int[n];
+    Arrays.fill(dist, INFINITY);
+    if (source < 0) return dist;
+    int[] start = reverse ? inStart : outStart;
+    int[] adj = reverse ? inFrom : outTo;
+    int[] w = reverse ? inW : outW;
+
+    long[] heap = new long[16];  // (distance << 32 | vertex), lazy deletion
+    int size = 0;
+    dist[source] = 0;
+    heap[size++] = source;
+    while (size > 0) {
+      long top = heap[0];
+      heap[0] = heap[--size];
+      siftDown(heap, size);
+      int v = (int) top;
+      if ((int) (top >>> 32) != dist[v]) continue;
+      for (int k = start[v]; k < start[v + 1]; k++) {
+        int x = adj[k];
+        if (dist[v] + w[k] < dist[x]) {
+          dist[x] = dist[v] + w[k];
+          if (edgeTo != null) edgeTo[x] = v;
+          if (size == heap.length) heap = Arrays.copyOf(heap, 2 * size);
+          heap[size] = ((long) dist[x] << 32) | x;
+          siftUp(heap, size++);
+        }
+      }
+    }
+    return dist;
+  }
+
+  private static void siftUp(long[] heap, int k) {
+    while (k > 0 && heap[(k - 1) / 2] > heap[k]) {
+      long t = heap[k]; heap[k] = heap[(k - 1) / 2]; heap[(k - 1) / 2] = t;
+      k = (k - 1) / 2;
+    }
+  }
+
+  private static void siftDown(long[] heap, int size) {
+    int k = 0;
+    while (2 * k + 1 < size) {
+      int j = 2 * k + 1;
+      if (j + 1 < size && heap[j + 1] < heap[j]) j++;
+      if (heap[k] <= heap[j]) break;
+      long t = heap[k]; heap[k] = heap[j]; heap[j] = t;
+      k = j;
+    }
+  }
+
+  private int local(int global) {
+    int k = Arrays.binarySearch(globalIds, global);
+    return k < 0 ? -1 : k;
+  }
+
+  /**
+   * Run a worker process: java RegionWorker regionFile [port]
+   * The chosen port is printed on the first line of standard output.
+   */
+  public static void main(String[] args) throws IOException {
+    RegionWorker worker = load(args[0], args.length > 1 ? Integer.parseInt(args[1]) : 0);
+    System.out.println(worker.port());
+    System.out.flush();
+    //exit with the coordinator, even if it is killed before it can stop us
+    ProcessHandle.current().parent()
+      .ifPresent(parent -> parent.onExit().thenRun(() -> System.exit(0)));
+    worker.run();
+  }
+}
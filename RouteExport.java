@@ -0,0 +1,170 @@
+import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ *  The <tt>RouteExport</tt> class streams a route network out of the
+ *  program. Routes are stored in both directions, so every route is visited
+ *  once, from the endpoint with the smaller index, straight from the
+ *  adjacency lists; no per-city collections or <tt>Route</tt> objects are
+ *  built. Text formats are encoded in chunks and written through a file
+ *  channel; the binary format is the <tt>OffHeapGraph</tt> backing file.
+ *  Cities whose name is null (removed cities) are left out and the
+ *  remaining ones are renumbered in order.
+ */
+public class RouteExport {
+  private static final int CHUNK = 1 << 15;  // chars encoded per write
+
+  /**
+   * The file formats.
+   * CSV: a header line, then source,destination,distance,price per route.
+   * ROUTES: the input format of <tt>AirlineSystem.loadRoutes</tt>.
+   * BINARY: a snapshot that <tt>OffHeapGraph.open</tt> maps back in.
+   */
+  public enum Format { CSV, ROUTES, BINARY }
+
+  /**
+   * Callback for <tt>forEachRoute</tt>.
+   */
+  public interface RouteVisitor {
+    public void visit(int from, int to, int weight, double price);
+  }
+
+  /**
+   * Call visitor once for every route of G, with from <= to.
+   */
+  public static void forEachRoute(RouteGraph G, RouteVisitor visitor) {
+    int[] loops = new int[1];
+    for (int v = 0; v < G.vertexCount(); v++) {
+      loops[0] = 0;
+      G.forEachEdge(v, (from, to, weight, price) -> {
+        //a route from a city to itself is listed twice in its own list
+        if (from < to || (from == to && loops[0]++ % 2 == 0))
+          visitor.visit(from, to, weight, price);
+      });
+    }
+  }
+
+  /**
+   * Write the routes of G to file.
+   * @param names the city names by index, null for cities to leave out
+   */
+  public static void write(RouteGraph G, List<String> names, Format format,
+                           File file) throws IOException {
+    int n = G.vertexCount();
+    int[] ids = new int[n];      // ids[v] = index of v in the file
+    int[] cities = new int[n];   // cities[i] = v with ids[v] = i
+    int live = 0;
+    for (int v = 0; v < n; v++) {
+      ids[v] = names.get(v) == null ? -1 : live;
+      if (ids[v] != -1) cities[live++] = v;
+    }
+
+    if (format == Format.BINARY) {
+      int count = live;
+      OffHeapGraph.save(new RouteGraph() {
+        public int vertexCount() {
+          return count;
+        }
+        public int edgeCount() {
+          return G.edgeCount();
+        }
+        public void forEachEdge(int v, EdgeVisitor visitor) {
+          G.forEachEdge(cities[v], (from, to, weight, price) ->
+            visitor.visit(v, ids[to], weight, price));
+        }
+      }, file);
+      return;
+    }
+
+    try (TextChannel out = new TextChannel(file)) {
+      if (format == Format.CSV) {
+        out.append("source,destination,distance,price\n");
+      } else {
+        out.append(live).append('\n');
+        for (int i = 0; i < live; i++)
+          out.append(names.get(cities[i])).append('\n');
+      }
+      IOException[] failed = new IOException[1];
+      forEachRoute(G, (from, to, weight, price) -> {
+        if (failed[0] != null) return;
+        try {
+          if (format == Format.CSV) {
+            out.appendCsv(names.get(from)).append(',').appendCsv(names.get(to));
+          } else {
+            out.append(ids[from] + 1).append(' ').append(ids[to] + 1);
+          }
+          out.append(format == Format.CSV ? ',' : ' ').append(weight)
+            .append(format == Format.CSV ? ',' : ' ').append(price).append('\n');
+        } catch (IOException x) {
+          failed[0] = x;
+        }
+      });
+      if (failed[0] != null) throw failed[0];
+    }
+  }
+
+  /**
+   * Text encoded as UTF-8 a chunk at a time and written to a file channel.
+   */
+  private static class TextChannel implements Closeable {
+    private final FileChannel channel;
+    private final StringBuilder chunk = new StringBuilder(CHUNK + 256);
+
+    TextChannel(File file) throws IOException {
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    TextChannel append(String s) throws IOException {
+      chunk.append(s);
+      return full();
+    }
+
+    TextChannel append(char c) throws IOException {
+      chunk.append(c);
+      return full();
+    }
+
+    TextChannel append(int x) throws IOException {
+      chunk.append(x);
+      return full();
+    }
+
+    TextChannel append(double x) throws IOException {
+      chunk.append(x);
+      return full();
+    }
+
+    //quote a CSV field if it needs it
+    TextChannel appendCsv(String s) throws IOException {
+      if (s.indexOf(',') == -1 && s.indexOf('"') == -1 && s.indexOf('\n') == -1)
+        return append(s);
+      chunk.append('"').append(s.replace("\"", "\"\"")).append('"');
+      return full();
+    }
+
+    private TextChannel full() throws IOException {
+      if (chunk.length() >= CHUNK) flush();
+      return this;
+    }
+
+    private void flush() throws IOException {
+      java.nio.ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(chunk));
+      while (bytes.hasRemaining())
+        channel.write(bytes);
+      chunk.setLength(0);
+    }
+
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        channel.close();
+      }
+    }
+  }
+}
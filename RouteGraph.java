@@ -0,0 +1,31 @@
+/**
+ *  The <tt>RouteGraph</tt> interface is the read-only view of a route network
+ *  that the search engines work on. Vertices are named 0 through
+ *  vertexCount()-1; every edge carries a distance in miles and a price.
+ *  It is implemented by the heap-based <tt>AirlineSystem.Digraph</tt> and by
+ *  the off-heap <tt>OffHeapGraph</tt>.
+ */
+public interface RouteGraph {
+
+  /**
+   * Return the number of vertices.
+   */
+  public int vertexCount();
+
+  /**
+   * Return the number of directed edges.
+   */
+  public int edgeCount();
+
+  /**
+   * Call visitor once for every edge leaving vertex v.
+   */
+  public void forEachEdge(int v, EdgeVisitor visitor);
+
+  /**
+   * Callback for <tt>forEachEdge</tt>.
+   */
+  public interface EdgeVisitor {
+    public void visit(int from, int to, int weight, double price);
+  }
+}
@@ -0,0 +1,373 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ *  The <tt>RouteRangeIndex</tt> class keeps the routes of a network sorted
+ *  by price and by distance, so that "all routes between $100 and $200" or
+ *  "the ten longest routes" are answered by binary search instead of a walk
+ *  over every adjacency list. Each route is indexed once, whichever way it
+ *  is stored in the graph, under its own id; parallel routes between the
+ *  same two cities are chained so that each of them is listed.
+ *  Both orders are primitive arrays of route ids next to their keys. Added,
+ *  changed and removed routes are first collected in a small unsorted batch;
+ *  queries merge that batch in on the fly, and once it holds BATCH routes it
+ *  is sorted and merged into the main arrays in one linear pass.
+ *  Query results are cursors that walk the arrays in order. Next to every
+ *  id the arrays hold the route as it was merged in, a merge replaces them
+ *  instead of changing them and the batch entries in range are copied when
+ *  the cursor is made, so a cursor lists the routes as they were at that
+ *  moment whatever changes later. The caller serializes changes.
+ */
+public class RouteRangeIndex {
+  private static final int BATCH = 256;  // changes kept unsorted before a merge
+
+  //route attributes by route id; from[r] == -1 once r is removed
+  private int[] from = new int[16];
+  private int[] to = new int[16];
+  private int[] weight = new int[16];
+  private double[] price = new double[16];
+  private int[] same = new int[16];   // same[r] = next route between the same two cities, or -1
+  private int routes;
+  private final HashMap<Long, Integer> ids = new HashMap<Long, Integer>();  // first route per city pair
+
+  private final Sorted byPrice = new Sorted(true);
+  private final Sorted byWeight = new Sorted(false);
+
+  //route ids changed since the last merge; their main entries are stale
+  private int[] batch = new int[BATCH];
+  private int batchSize;
+  private boolean[] inBatch = new boolean[16];
+
+  /**
+   * Index the routes of G, which must store every route in both directions.
+   */
+  public RouteRangeIndex(RouteGraph G) {
+    RouteExport.forEachRoute(G, (from, to, weight, price) -> append(from, to, weight, price));
+    int[] all = new int[routes];
+    for (int r = 0; r < routes; r++)
+      all[r] = r;
+    byPrice.rebuild(all, routes);
+    byWeight.rebuild(all.clone(), routes);
+  }
+
+  /**
+   * Index a new route between a and b.
+   */
+  public void add(int a, int b, int distance, double cost) {
+    changed(append(a, b, distance, cost));
+  }
+
+  /**
+   * Change the distance and price of the route between a and b, if any; of
+   * several parallel routes, the first one indexed.
+   */
+  public void update(int a, int b, int distance, double cost) {
+    Integer r = ids.get(key(a, b));
+    if (r == null) return;
+    weight[r] = distance;
+    price[r] = cost;
+    changed(r);
+  }
+
+  /**
+   * Drop every route between a and b, if any.
+   */
+  public void remove(int a, int b) {
+    Integer first = ids.remove(key(a, b));
+    if (first == null) return;
+    for (int r = first; r != -1; r = same[r]) {
+      from[r] = -1;
+      changed(r);
+    }
+  }
+
+  /**
+   * Walk the routes priced between min and max (inclusive), cheapest first
+   * or, if descending, dearest first.
+   */
+  public Cursor byPrice(double min, double max, boolean descending) {
+    return byPrice.range(min, max, descending);
+  }
+
+  /**
+   * Walk the routes with a distance between min and max (inclusive),
+   * shortest first or, if descending, longest first.
+   */
+  public Cursor byDistance(int min, int max, boolean descending) {
+    return byWeight.range(min, max, descending);
+  }
+
+  private int append(int a, int b, int distance, double cost) {
+    if (routes == from.length) {
+      int len = 2 * routes;
+      from = Arrays.copyOf(from, len);
+      to = Arrays.copyOf(to, len);
+      weight = Arrays.copyOf(weight, len);
+      price = Arrays.copyOf(price, len);
+      same = Arrays.copyOf(same, len);
+      inBatch = Arrays.copyOf(inBatch, len);
+    }
+    from[routes] = a;
+    to[routes] = b;
+    weight[routes] = distance;
+    price[routes] = cost;
+    same[routes] = -1;
+    Integer first = ids.putIfAbsent(key(a, b), routes);
+    if (first != null) {
+      int r = first;
+      while (same[r] != -1)
+        r = same[r];
+      same[r] = routes;
+    }
+    return routes++;
+  }
+
+  private void changed(int r) {
+    if (inBatch[r]) return;
+    inBatch[r] = true;
+    batch[batchSize++] = r;
+    if (batchSize == BATCH) {
+      byPrice.merge();
+      byWeight.merge();
+      for (int i = 0; i < batchSize; i++)
+        inBatch[batch[i]] = false;
+      batchSize = 0;
+    }
+  }
+
+  private static long key(int a, int b) {
+    return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+  }
+
+  //the first n sorted ids with their keys and current attributes
+  private Entries entries(int[] rs, double[] ks, int n) {
+    int[] f = new int[n], t = new int[n], w = new int[n];
+    double[] p = new double[n];
+    for (int i = 0; i < n; i++) {
+      int r = rs[i];
+      f[i] = from[r];
+      t[i] = to[r];
+      w[i] = weight[r];
+      p[i] = price[r];
+    }
+    return new Entries(rs, ks, n, f, t, w, p);
+  }
+
+  /**
+   * Route ids in key order next to their keys and attributes. Never
+   * changed once made.
+   */
+  private static class Entries {
+    final int[] order;
+    final double[] keys;
+    final int count;
+    final int[] from, to, weight;
+    final double[] price;
+
+    Entries(int[] order, double[] keys, int count, int[] from, int[] to,
+            int[] weight, double[] price) {
+      this.order = order;
+      this.keys = keys;
+      this.count = count;
+      this.from = from;
+      this.to = to;
+      this.weight = weight;
+      this.price = price;
+    }
+  }
+
+  /**
+   * Route ids sorted by one key. The entries are replaced, never changed,
+   * by a merge, so running cursors keep a consistent view.
+   */
+  private class Sorted {
+    private final boolean prices;
+    private Entries main = new Entries(new int[0], new double[0], 0,
+                                       new int[0], new int[0], new int[0], new double[0]);
+
+    Sorted(boolean prices) {
+      this.prices = prices;
+    }
+
+    double key(int r) {
+      return prices ? price[r] : weight[r];
+    }
+
+    void rebuild(int[] rs, int n) {
+      double[] ks = new double[n];
+      for (int i = 0; i < n; i++)
+        ks[i] = key(rs[i]);
+      sort(ks, rs, 0, n);
+      main = entries(rs, ks, n);
+    }
+
+    //drop stale and removed entries and merge in the sorted batch
+    void merge() {
+      int[] fresh = new int[batchSize];
+      int m = 0;
+      for (int i = 0; i < batchSize; i++)
+        if (from[batch[i]] != -1) fresh[m++] = batch[i];
+      double[] freshKeys = new double[m];
+      for (int i = 0; i < m; i++)
+        freshKeys[i] = key(fresh[i]);
+      sort(freshKeys, fresh, 0, m);
+
+      int[] rs = new int[main.count + m];
+      double[] ks = new double[main.count + m];
+      int n = 0, j = 0;
+      for (int i = 0; i < main.count; i++) {
+        int r = main.order[i];
+        if (inBatch[r] || from[r] == -1) continue;
+        while (j < m && freshKeys[j] < main.keys[i]) {
+          ks[n] = freshKeys[j];
+          rs[n++] = fresh[j++];
+        }
+        ks[n] = main.keys[i];
+        rs[n++] = r;
+      }
+      while (j < m) {
+        ks[n] = freshKeys[j];
+        rs[n++] = fresh[j++];
+      }
+      main = entries(rs, ks, n);
+    }
+
+    Cursor range(double min, double max, boolean descending) {
+      //the batch entries in range, sorted; a copy of at most BATCH routes
+      int[] fresh = new int[batchSize];
+      double[] freshKeys = new double[batchSize];
+      int m = 0;
+      for (int i = 0; i < batchSize; i++) {
+        int r = batch[i];
+        if (from[r] != -1 && key(r) >= min && key(r) <= max) {
+          fresh[m] = r;
+          freshKeys[m++] = key(r);
+        }
+      }
+      sort(freshKeys, fresh, 0, m);
+      int[] stale = Arrays.copyOf(batch, batchSize);
+      Arrays.sort(stale);
+      return new Cursor(main, lowerBound(min), upperBound(max),
+                        entries(fresh, freshKeys, m), stale, descending);
+    }
+
+    private int lowerBound(double k) {
+      int lo = 0, hi = main.count;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (main.keys[mid] < k) lo = mid + 1;
+        else hi = mid;
+      }
+      return lo;
+    }
+
+    private int upperBound(double k) {
+      int lo = 0, hi = main.count;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (main.keys[mid] <= k) lo = mid + 1;
+        else hi = mid;
+      }
+      return lo;
+    }
+  }
+
+  /**
+   * The routes of one range query, as they were when it was made. Walks
+   * main[lo..hi) and the sorted batch entries together in key order,
+   * skipping main entries of routes that were in the batch. Call
+   * <tt>next()</tt> before reading each route.
+   */
+  public static class Cursor {
+    private final Entries main, fresh;
+    private final int[] stale;
+    private final int lo, hi;
+    private final boolean descending;
+    private int i, j;     // next main and batch positions, counted from the start
+    private Entries current;
+    private int at;
+
+    private Cursor(Entries main, int lo, int hi, Entries fresh, int[] stale,
+                   boolean descending) {
+      this.main = main;
+      this.lo = lo;
+      this.hi = hi;
+      this.fresh = fresh;
+      this.stale = stale;
+      this.descending = descending;
+    }
+
+    /**
+     * Move to the next route. Returns false once there is none.
+     */
+    public boolean next() {
+      int m = fresh.count;
+      while (lo + i < hi || j < m) {
+        int a = descending ? hi - 1 - i : lo + i;
+        int b = descending ? m - 1 - j : j;
+        boolean takeMain = j == m || (lo + i < hi
+          && (descending ? main.keys[a] >= fresh.keys[b] : main.keys[a] <= fresh.keys[b]));
+        if (takeMain) {
+          i++;
+          if (Arrays.binarySearch(stale, main.order[a]) >= 0) continue;
+          current = main;
+          at = a;
+        } else {
+          j++;
+          current = fresh;
+          at = b;
+        }
+        return true;
+      }
+      current = null;
+      return false;
+    }
+
+    public int from() {
+      return current.from[at];
+    }
+
+    public int to() {
+      return current.to[at];
+    }
+
+    public int weight() {
+      return current.weight[at];
+    }
+
+    public double price() {
+      return current.price[at];
+    }
+  }
+
+  //sort ids[lo..hi) by keys, moving both arrays together
+  private static void sort(double[] keys, int[] ids, int lo, int hi) {
+    while (hi - lo > 16) {
+      double pivot = keys[(lo + hi) >>> 1];
+      int a = lo, b = hi - 1;
+      while (a <= b) {
+        while (keys[a] < pivot) a++;
+        while (keys[b] > pivot) b--;
+        if (a <= b) {
+          swap(keys, ids, a++, b--);
+        }
+      }
+      //recurse into the smaller half
+      if (b - lo < hi - a) {
+        sort(keys, ids, lo, b + 1);
+        lo = a;
+      } else {
+        sort(keys, ids, a, hi);
+        hi = b + 1;
+      }
+    }
+    for (int x = lo + 1; x < hi; x++)
+      for (int y = x; y > lo && keys[y - 1] > keys[y]; y--)
+        swap(keys, ids, y, y - 1);
+  }
+
+  private static void swap(double[] keys, int[] ids, int a, int b) {
+    double k = keys[a]; keys[a] = keys[b]; keys[b] = k;
+    int t = ids[a]; ids[a] = ids[b]; ids[b] = t;
+  }
+}
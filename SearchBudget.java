@@ -0,0 +1,73 @@
+import java.util.function.BooleanSupplier;
+
+/**
+ *  The <tt>SearchBudget</tt> class bounds how much work one search may do:
+ *  a deadline, a maximum number of settled vertices and a cancellation
+ *  check. Search loops call <tt>settle()</tt> once per settled vertex and
+ *  stop as soon as it returns false; <tt>outcome()</tt> then tells why.
+ *  The clock and the cancellation check are only consulted every few
+ *  settles, so a budget costs next to nothing in the inner loop.
+ */
+public class SearchBudget {
+  private static final int CHECK_EVERY = 64;  // settles between clock checks
+
+  /**
+   * How a budgeted search ended.
+   */
+  public enum Outcome { COMPLETE, SETTLED_LIMIT, TIMED_OUT, CANCELLED }
+
+  private final long deadline;        // System.nanoTime() value, or Long.MAX_VALUE
+  private final long maxSettled;
+  private final BooleanSupplier cancelled;
+  private long settled;
+  private Outcome outcome = Outcome.COMPLETE;
+
+  /**
+   * Create a budget.
+   * @param deadline the System.nanoTime() value to stop at, or
+   * Long.MAX_VALUE for no deadline
+   * @param maxSettled the maximum number of settled vertices, or a
+   * non-positive number for no limit
+   * @param cancelled polled to find out whether the caller gave up; may be
+   * null
+   */
+  public SearchBudget(long deadline, long maxSettled, BooleanSupplier cancelled) {
+    this.deadline = deadline;
+    this.maxSettled = maxSettled <= 0 ? Long.MAX_VALUE : maxSettled;
+    this.cancelled = cancelled;
+  }
+
+  /**
+   * Count one settled vertex. Returns false if the search must stop.
+   */
+  public boolean settle() {
+    if (outcome != Outcome.COMPLETE) return false;
+    if (settled == maxSettled) {
+      outcome = Outcome.SETTLED_LIMIT;
+      return false;
+    }
+    if (settled % CHECK_EVERY == 0) {
+      if (cancelled != null && cancelled.getAsBoolean()) {
+        outcome = Outcome.CANCELLED;
+        return false;
+      }
+      if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0) {
+        outcome = Outcome.TIMED_OUT;
+        return false;
+      }
+    }
+    settled++;
+    return true;
+  }
+
+  public Outcome outcome() {
+    return outcome;
+  }
+
+  /**
+   * Return the number of vertices settled within the budget.
+   */
+  public long settled() {
+    return settled;
+  }
+}
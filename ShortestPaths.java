@@ -0,0 +1,219 @@
+import java.util.Arrays;
+
+/**
+ *  The <tt>ShortestPaths</tt> class runs breadth-first and Dijkstra searches
+ *  over any <tt>RouteGraph</tt> and keeps their result until the next
+ *  search. Every thread has one instance (see <tt>forThread</tt>) whose
+ *  arrays are reused by all of its searches: a slot counts as unreached
+ *  unless its stamp equals the current epoch, so a new search only bumps the
+ *  epoch instead of clearing arrays of size V, and the arrays are replaced
+ *  by larger ones when the graph searched has grown. The distance and price
+ *  of the route into every reached vertex are kept next to its predecessor,
+ *  so a path can be turned into routes without reading the graph again.
+ */
+public class ShortestPaths {
+  private static final int INFINITY = Integer.MAX_VALUE;
+  private static final ThreadLocal<ShortestPaths> WORKSPACE =
+    ThreadLocal.withInitial(ShortestPaths::new);
+
+  private int epoch;
+  private int[] seen = new int[0];      // seen[v] == epoch when distTo[v] and edgeTo[v] are valid
+  private int[] marked = new int[0];    // marked[v] == epoch once v is reached (bfs) or settled (dijkstra)
+  private int[] distTo = new int[0];
+  private int[] edgeTo = new int[0];
+  private int[] weightTo = new int[0];  // distance of the route edgeTo[v]-v
+  private double[] priceTo = new double[0];
+  private int[] queue = new int[0];
+  private long[] heap = new long[16];   // (distance << 32) | vertex
+  private int size;
+
+  //the edge visitors of both searches, made once per thread
+  private int tail;
+  private final RouteGraph.EdgeVisitor enqueue = this::enqueue;
+  private final RouteGraph.EdgeVisitor relax = this::relax;
+
+  private ShortestPaths() { }
+
+  /**
+   * Return the search state of the calling thread.
+   */
+  public static ShortestPaths forThread() {
+    return WORKSPACE.get();
+  }
+
+  /**
+   * Compute fewest-hops paths from source to every vertex reachable from it.
+   * @return this, to read the paths from
+   */
+  public ShortestPaths bfs(RouteGraph G, int source) {
+    return bfs(G, source, -1, null);
+  }
+
+  /**
+   * Compute fewest-hops paths from source, stopping once destination is
+   * reached (pass -1 to search the whole graph) or the budget runs out,
+   * whichever comes first.
+   * @param budget charged one settle per vertex taken off the queue; may be
+   * null
+   * @return this, to read the paths from
+   */
+  public ShortestPaths bfs(RouteGraph G, int source, int destination,
+                           SearchBudget budget) {
+    reset(G.vertexCount());
+    int head = 0;
+    tail = 0;
+    reach(source, 0, source, 0, 0);
+    marked[source] = epoch;
+    queue[tail++] = source;
+    while (head < tail) {
+      if (destination != -1 && marked[destination] == epoch) break;
+      if (budget != null && !budget.settle()) break;
+      G.forEachEdge(queue[head++], enqueue);
+    }
+    return this;
+  }
+
+  /**
+   * Compute shortest paths from source, stopping once destination is
+   * settled (pass -1 to search the whole graph). Among vertices at the same
+   * distance the one with the smallest index is settled first.
+   * @return this, to read the paths from
+   */
+  public ShortestPaths dijkstra(RouteGraph G, int source, int destination) {
+    return dijkstra(G, source, destination, null);
+  }
+
+  /**
+   * Compute shortest paths from source, stopping once destination is
+   * settled (pass -1 to search the whole graph) or the budget runs out,
+   * whichever comes first. After a stop on the budget, distances and paths
+   * are the best found so far.
+   * @param budget charged one settle per settled vertex; may be null
+   * @return this, to read the paths from
+   */
+  public ShortestPaths dijkstra(RouteGraph G, int source, int destination,
+                                SearchBudget budget) {
+    reset(G.vertexCount());
+    reach(source, 0, source, 0, 0);
+    push(source, 0);
+    while (size > 0) {
+      long top = pop();
+      int current = (int) top;
+      if (marked[current] == epoch || (int) (top >>> 32) != distTo[current])
+        continue;  // stale entry
+      if (budget != null && !budget.settle()) break;
+      marked[current] = epoch;
+      if (current == destination) break;
+      G.forEachEdge(current, relax);
+    }
+    return this;
+  }
+
+  /**
+   * Is there a path from the source of the last search to vertex v? After a
+   * dijkstra search that stopped at its destination, only the vertices
+   * settled before it are known.
+   */
+  public boolean hasPathTo(int v) {
+    return v < marked.length && marked[v] == epoch;
+  }
+
+  /**
+   * Return the distance (hops for bfs, miles for dijkstra) from the source
+   * of the last search to vertex v.
+   */
+  public int distTo(int v) {
+    return v < seen.length && seen[v] == epoch ? distTo[v] : INFINITY;
+  }
+
+  /**
+   * Return the vertex before v on the path found by the last search.
+   */
+  public int edgeTo(int v) {
+    return edgeTo[v];
+  }
+
+  /**
+   * Return the distance of the route from edgeTo(v) to v.
+   */
+  public int weightTo(int v) {
+    return weightTo[v];
+  }
+
+  /**
+   * Return the price of the route from edgeTo(v) to v.
+   */
+  public double priceTo(int v) {
+    return priceTo[v];
+  }
+
+  private void enqueue(int from, int to, int weight, double price) {
+    if (marked[to] != epoch) {
+      reach(to, distTo[from] + 1, from, weight, price);
+      marked[to] = epoch;
+      queue[tail++] = to;
+    }
+  }
+
+  private void relax(int from, int to, int weight, double price) {
+    int d = distTo[from] + weight;
+    if (seen[to] != epoch || d < distTo[to]) {
+      reach(to, d, from, weight, price);
+      push(to, d);
+    }
+  }
+
+  private void reset(int n) {
+    if (seen.length < n) {
+      int len = Math.max(n, 2 * seen.length);
+      seen = new int[len];
+      marked = new int[len];
+      distTo = new int[len];
+      edgeTo = new int[len];
+      weightTo = new int[len];
+      priceTo = new double[len];
+      queue = new int[len];
+      epoch = 0;
+    }
+    if (++epoch == Integer.MAX_VALUE) {
+      Arrays.fill(seen, 0);
+      Arrays.fill(marked, 0);
+      epoch = 1;
+    }
+    size = 0;
+  }
+
+  private void reach(int v, int d, int from, int weight, double price) {
+    seen[v] = epoch;
+    distTo[v] = d;
+    edgeTo[v] = from;
+    weightTo[v] = weight;
+    priceTo[v] = price;
+  }
+
+  private void push(int v, int d) {
+    if (size == heap.length) heap = Arrays.copyOf(heap, 2 * size);
+    int k = size++;
+    long key = ((long) d << 32) | v;
+    while (k > 0 && heap[(k - 1) / 2] > key) {
+      heap[k] = heap[(k - 1) / 2];
+      k = (k - 1) / 2;
+    }
+    heap[k] = key;
+  }
+
+  private long pop() {
+    long top = heap[0];
+    long key = heap[--size];
+    int k = 0;
+    while (2 * k + 1 < size) {
+      int j = 2 * k + 1;
+      if (j + 1 < size && heap[j + 1] < heap[j]) j++;
+      if (key <= heap[j]) break;
+      heap[k] = heap[j];
+      k = j;
+    }
+    heap[k] = key;
+    return top;
+  }
+}
@@ -0,0 +1,206 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *  The <tt>TiedPaths</tt> class finds every fewest-hops or every
+ *  shortest-distance path between two cities. A search from the source
+ *  records the predecessor graph: for every city, the routes into it that
+ *  lie on some optimal path. Paths are then walked backwards from the
+ *  destination one at a time, so only the path being built is in memory no
+ *  matter how many tied paths there are. Routes of zero miles can make that
+ *  graph cyclic; the paths listed never visit a city twice.
+ *  In fewest-hops mode parallel routes between the same two cities count
+ *  once; in distance mode they are different paths.
+ */
+public class TiedPaths implements Iterable<int[]> {
+  private static final int INFINITY = Integer.MAX_VALUE;
+
+  private final int source, destination;
+  private final boolean hops;
+  private final int[] dist;
+  //predFrom[predStart[v]..predStart[v+1]) = tails of optimal routes into v
+  private final int[] predStart;
+  private final int[] predFrom;
+  private final int[] predWeight;
+  private final double[] predPrice;
+
+  /**
+   * Search G from source and record the optimal routes towards destination.
+   * @param hops true to count hops, false to sum distances
+   */
+  public TiedPaths(RouteGraph G, int source, int destination, boolean hops) {
+    this.source = source;
+    this.destination = destination;
+    this.hops = hops;
+    int n = G.vertexCount();
+    if (hops) {
+      dist = new int[n];
+      Arrays.fill(dist, INFINITY);
+      int[] queue = new int[n];
+      int head = 0;
+      int[] tail = {0};
+      dist[source] = 0;
+      queue[tail[0]++] = source;
+      while (head < tail[0]) {
+        G.forEachEdge(queue[head++], (from, to, weight, price) -> {
+          if (dist[to] == INFINITY) {
+            dist[to] = dist[from] + 1;
+            queue[tail[0]++] = to;
+          }
+        });
+      }
+    } else {
+      ShortestPaths sp = ShortestPaths.forThread().dijkstra(G, source, -1);
+      dist = new int[n];
+      for (int v = 0; v < n; v++)
+        dist[v] = sp.distTo(v);
+    }
+
+    //keep the tight routes, counting them first to size the arrays
+    predStart = new int[n + 1];
+    int[] count = new int[1];
+    for (int u = 0; u < n; u++) {
+      if (dist[u] == INFINITY) continue;
+      G.forEachEdge(u, (from, to, weight, price) -> {
+        if (tight(from, to, weight)) {
+          predStart[to + 1]++;
+          count[0]++;
+        }
+      });
+    }
+    for (int v = 0; v < n; v++)
+      predStart[v + 1] += predStart[v];
+    predFrom = new int[count[0]];
+    predWeight = new int[count[0]];
+    predPrice = new double[count[0]];
+    int[] pos = Arrays.copyOf(predStart, n);
+    for (int u = 0; u < n; u++) {
+      if (dist[u] == INFINITY) continue;
+      G.forEachEdge(u, (from, to, weight, price) -> {
+        if (!tight(from, to, weight)) return;
+        //one route per city pair is enough when counting hops
+        if (hops && pos[to] > predStart[to] && predFrom[pos[to] - 1] == from) return;
+        predFrom[pos[to]] = from;
+        predWeight[pos[to]] = weight;
+        predPrice[pos[to]++] = price;
+      });
+    }
+    //hops mode may have skipped duplicates; mark the unused tail
+    for (int v = 0; v < n; v++) {
+      for (int k = pos[v]; k < predStart[v + 1]; k++)
+        predFrom[k] = -1;
+    }
+  }
+
+  //routes of zero miles between cities at the same distance are tight both
+  //ways, so in distance mode the predecessors may form cycles
+  private boolean tight(int from, int to, int weight) {
+    return dist[to] != INFINITY && dist[from] + (hops ? 1 : weight) == dist[to];
+  }
+
+  /**
+   * Is there any path from source to destination?
+   */
+  public boolean hasPath() {
+    return dist[destination] != INFINITY;
+  }
+
+  /**
+   * Return the optimal hop count or distance.
+   */
+  public int cost() {
+    return dist[destination];
+  }
+
+  /**
+   * Return the tail city of the optimal route with index k.
+   */
+  public int from(int k) {
+    return predFrom[k];
+  }
+
+  public int weight(int k) {
+    return predWeight[k];
+  }
+
+  public double price(int k) {
+    return predPrice[k];
+  }
+
+  /**
+   * Iterate over the tied paths. Each path is the array of the route
+   * indices it uses, in travel order; pass them to from, weight and price.
+   * The destination of route i is the source of route i+1.
+   */
+  public Iterator<int[]> iterator() {
+    return new PathIterator();
+  }
+
+  /**
+   * Depth-first walk of the predecessor graph from the destination back to
+   * the source, advancing one path per call to next. A city already on the
+   * path is not entered again, so zero-mile cycles yield simple paths only.
+   */
+  private class PathIterator implements Iterator<int[]> {
+    private int[] choice = new int[8];  // choice[d] = route index taken at depth d
+    private int[] at = new int[8];      // at[d] = city at depth d (at[0] = destination)
+    private final boolean[] onPath = new boolean[dist.length];
+    private int depth = -1;
+    private int[] next;
+
+    PathIterator() {
+      if (!hasPath()) return;
+      if (source == destination) {
+        next = new int[0];
+        return;
+      }
+      at[0] = destination;
+      onPath[destination] = true;
+      depth = 0;
+      choice[0] = predStart[destination] - 1;
+      advance();
+    }
+
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    public int[] next() {
+      if (next == null) throw new NoSuchElementException();
+      int[] path = next;
+      next = null;
+      if (depth >= 0) advance();
+      return path;
+    }
+
+    //move to the next complete path, or set depth to -1 when done
+    private void advance() {
+      while (depth >= 0) {
+        int v = at[depth];
+        int k = ++choice[depth];
+        if (k >= predStart[v + 1] || predFrom[k] == -1) {
+          onPath[v] = false;
+          depth--;
+          continue;
+        }
+        int u = predFrom[k];
+        if (onPath[u]) continue;
+        if (u == source) {
+          next = new int[depth + 1];
+          for (int d = 0; d <= depth; d++)
+            next[depth - d] = choice[d];
+          return;
+        }
+        if (depth + 1 == at.length) {
+          at = Arrays.copyOf(at, 2 * at.length);
+          choice = Arrays.copyOf(choice, 2 * choice.length);
+        }
+        depth++;
+        at[depth] = u;
+        onPath[u] = true;
+        choice[depth] = predStart[u] - 1;
+      }
+    }
+  }
+}
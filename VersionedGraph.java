@@ -0,0 +1,388 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  The <tt>VersionedGraph</tt> class keeps immutable, numbered versions of
+ *  a route network. Every committed batch of changes produces a new version
+ *  that shares all unchanged adjacency blocks (groups of BLOCK cities) with
+ *  the one before it, so a commit costs time proportional to the blocks it
+ *  touches, not to the size of the network. A removed city keeps its index
+ *  and its lists; it is only marked, and traversals skip it and the routes
+ *  to it, so removing a city costs time proportional to its own routes.
+ *  Readers pin a version without taking a lock and see a consistent network
+ *  however many commits happen meanwhile. The latest <tt>retain</tt> versions
+ *  stay available for "as of version N" queries; older ones are dropped as
+ *  soon as no reader has them pinned and are then reclaimed by the garbage
+ *  collector. Commits are serialized.
+ */
+public class VersionedGraph {
+  private static final int BLOCK = 64;  // cities per adjacency block
+  private static final int CITY = 0, ADD = 1, UPDATE = 2, REMOVE = 3, DROP_CITY = 4;
+
+  private final ConcurrentSkipListMap<Long, Version> history =
+    new ConcurrentSkipListMap<Long, Version>();
+  private final int retain;
+  private volatile Version current;
+
+  /**
+   * Create version 1 as a copy of G, keeping the latest retain versions.
+   */
+  public VersionedGraph(RouteGraph G, int retain) {
+    this(G, retain, 1);
+  }
+
+  /**
+   * Create version first as a copy of G, keeping the latest retain
+   * versions.
+   */
+  public VersionedGraph(RouteGraph G, int retain, long first) {
+    if (retain <= 0) throw new IllegalArgumentException("retain must be positive");
+    this.retain = retain;
+    int n = G.vertexCount();
+    Block[] blocks = new Block[(n + BLOCK - 1) / BLOCK];
+    for (int b = 0; b < blocks.length; b++)
+      blocks[b] = new Block();
+    for (int v = 0; v < n; v++) {
+      Block block = blocks[v / BLOCK];
+      int i = v % BLOCK;
+      ArrayList<double[]> edges = new ArrayList<double[]>();
+      G.forEachEdge(v, (from, to, weight, price) -> edges.add(new double[] {to, weight, price}));
+      block.to[i] = new int[edges.size()];
+      block.weight[i] = new int[edges.size()];
+      block.price[i] = new double[edges.size()];
+      for (int k = 0; k < edges.size(); k++) {
+        block.to[i][k] = (int) edges.get(k)[0];
+        block.weight[i][k] = (int) edges.get(k)[1];
+        block.price[i][k] = edges.get(k)[2];
+      }
+    }
+    current = new Version(first, n, G.edgeCount(), blocks, new long[0]);
+    history.put(first, current);
+  }
+
+  /**
+   * Return the latest version without pinning it; it may be dropped from
+   * the history later, but stays usable while referenced.
+   */
+  public Version current() {
+    return current;
+  }
+
+  /**
+   * Pin and return the latest version. Call <tt>release</tt> when done.
+   */
+  public Version pin() {
+    while (true) {
+      Version v = current;
+      if (v.tryPin()) return v;
+    }
+  }
+
+  /**
+   * Pin and return the given version, or return null if it never existed
+   * or was already reclaimed. Call <tt>release</tt> when done.
+   */
+  public Version pin(long number) {
+    Version v = history.get(number);
+    return v != null && v.tryPin() ? v : null;
+  }
+
+  /**
+   * Unpin a version returned by <tt>pin</tt>.
+   */
+  public void release(Version v) {
+    v.pins.decrementAndGet();
+    prune();
+  }
+
+  /**
+   * Return the oldest version number still available.
+   */
+  public long oldest() {
+    return history.firstKey();
+  }
+
+  /**
+   * Start a batch of changes, applied to whatever version is latest when it
+   * is committed.
+   */
+  public Batch begin() {
+    return new Batch();
+  }
+
+  private synchronized Version commit(ArrayList<Op> ops) {
+    Version base = current;
+    int n = base.n;
+    int e = base.e;
+    for (Op op : ops)
+      if (op.kind == CITY) n++;
+    Block[] blocks = Arrays.copyOf(base.blocks, (n + BLOCK - 1) / BLOCK);
+    boolean[] copied = new boolean[blocks.length];
+    long[] removed = base.removed;
+    boolean removedCopied = false;
+    int next = base.n;
+
+    for (Op op : ops) {
+      if (op.kind == CITY) {
+        int v = next++;
+        Block block = writable(blocks, copied, v);
+        block.to[v % BLOCK] = new int[0];
+        block.weight[v % BLOCK] = new int[0];
+        block.price[v % BLOCK] = new double[0];
+        continue;
+      }
+      int from = op.from, to = op.to;
+      if (from >= next || to >= next)
+        throw new IllegalArgumentException("no city " + Math.max(from, to) + " in this version");
+      if (op.kind == DROP_CITY) {
+        if (isSet(removed, from)) continue;
+        //its live routes, each stored once from here and once from the other end
+        for (int w : blocks[from / BLOCK].to[from % BLOCK])
+          if (!isSet(removed, w)) e -= w == from ? 1 : 2;
+        if (!removedCopied) {
+          removed = Arrays.copyOf(removed, Math.max(removed.length, (n + 63) >>> 6));
+          removedCopied = true;
+        }
+        removed[from >>> 6] |= 1L << from;
+        continue;
+      }
+      boolean dead = isSet(removed, from) || isSet(removed, to);
+      if (dead && op.kind == ADD)
+        throw new IllegalArgumentException("city " + (isSet(removed, from) ? from : to) + " was removed");
+      Block block = writable(blocks, copied, from);
+      int i = from % BLOCK;
+      int k = indexOf(block.to[i], to);
+      if (op.kind == ADD) {
+        block.to[i] = append(block.to[i], to);
+        block.weight[i] = append(block.weight[i], op.weight);
+        block.price[i] = Arrays.copyOf(block.price[i], block.price[i].length + 1);
+        block.price[i][block.price[i].length - 1] = op.price;
+        e++;
+      } else if (op.kind == REMOVE && k != -1) {
+        //parallel routes between the same two cities all go
+        int[] keep = new int[block.to[i].length];
+        int kept = 0;
+        for (int j = 0; j < keep.length; j++)
+          if (block.to[i][j] != to) keep[kept++] = j;
+        int[] targets = new int[kept], weight = new int[kept];
+        double[] price = new double[kept];
+        for (int j = 0; j < kept; j++) {
+          targets[j] = block.to[i][keep[j]];
+          weight[j] = block.weight[i][keep[j]];
+          price[j] = block.price[i][keep[j]];
+        }
+        if (!dead) e -= block.to[i].length - kept;
+        block.to[i] = targets;
+        block.weight[i] = weight;
+        block.price[i] = price;
+      } else if (op.kind == UPDATE && k != -1) {
+        block.weight[i] = block.weight[i].clone();
+        block.price[i] = block.price[i].clone();
+        block.weight[i][k] = op.weight;
+        block.price[i][k] = op.price;
+      }
+    }
+
+    Version v = new Version(base.number + 1, n, e, blocks, removed);
+    history.put(v.number, v);
+    current = v;
+    prune();
+    return v;
+  }
+
+  //drop versions beyond the retention window that nobody has pinned
+  private void prune() {
+    long keep = current.number - retain;
+    for (Version v : history.headMap(keep, true).values()) {
+      if (v.tryRetire()) history.remove(v.number);
+    }
+  }
+
+  private static Block writable(Block[] blocks, boolean[] copied, int v) {
+    int b = v / BLOCK;
+    if (!copied[b]) {
+      blocks[b] = blocks[b] == null ? new Block() : blocks[b].copy();
+      copied[b] = true;
+    }
+    return blocks[b];
+  }
+
+  private static boolean isSet(long[] bits, int v) {
+    int w = v >>> 6;
+    return w < bits.length && (bits[w] & (1L << v)) != 0;
+  }
+
+  private static int indexOf(int[] a, int x) {
+    for (int k = 0; k < a.length; k++)
+      if (a[k] == x) return k;
+    return -1;
+  }
+
+  private static int[] append(int[] a, int x) {
+    int[] b = Arrays.copyOf(a, a.length + 1);
+    b[a.length] = x;
+    return b;
+  }
+
+  /**
+   * The adjacency lists of BLOCK consecutive cities. Never modified once
+   * it is part of a committed version.
+   */
+  private static class Block {
+    final int[][] to = new int[BLOCK][];
+    final int[][] weight = new int[BLOCK][];
+    final double[][] price = new double[BLOCK][];
+
+    Block copy() {
+      Block b = new Block();
+      System.arraycopy(to, 0, b.to, 0, BLOCK);
+      System.arraycopy(weight, 0, b.weight, 0, BLOCK);
+      System.arraycopy(price, 0, b.price, 0, BLOCK);
+      return b;
+    }
+  }
+
+  /**
+   * One recorded change of a batch.
+   */
+  private static class Op {
+    final int kind, from, to, weight;
+    final double price;
+
+    Op(int kind, int from, int to, int weight, double price) {
+      this.kind = kind;
+      this.from = from;
+      this.to = to;
+      this.weight = weight;
+      this.price = price;
+    }
+  }
+
+  /**
+   * One immutable version of the network.
+   */
+  public static final class Version implements RouteGraph {
+    private final long number;
+    private final int n;
+    private final int e;
+    private final Block[] blocks;
+    private final long[] removed;   // bitset of removed cities, shared until a city is removed
+    private final AtomicInteger pins = new AtomicInteger();  // -1 once retired
+
+    private Version(long number, int n, int e, Block[] blocks, long[] removed) {
+      this.number = number;
+      this.n = n;
+      this.e = e;
+      this.blocks = blocks;
+      this.removed = removed;
+    }
+
+    /**
+     * Return the version number, starting at 1.
+     */
+    public long number() {
+      return number;
+    }
+
+    public int vertexCount() {
+      return n;
+    }
+
+    public int edgeCount() {
+      return e;
+    }
+
+    /**
+     * Was city v removed? Its index stays taken, with no routes.
+     */
+    public boolean isRemoved(int v) {
+      return isSet(removed, v);
+    }
+
+    public void forEachEdge(int v, EdgeVisitor visitor) {
+      if (isSet(removed, v)) return;
+      Block block = blocks[v / BLOCK];
+      int i = v % BLOCK;
+      int[] to = block.to[i];
+      int[] weight = block.weight[i];
+      double[] price = block.price[i];
+      if (removed.length == 0) {
+        for (int k = 0; k < to.length; k++)
+          visitor.visit(v, to[k], weight[k], price[k]);
+        return;
+      }
+      for (int k = 0; k < to.length; k++)
+        if (!isSet(removed, to[k])) visitor.visit(v, to[k], weight[k], price[k]);
+    }
+
+    private boolean tryPin() {
+      while (true) {
+        int p = pins.get();
+        if (p < 0) return false;
+        if (pins.compareAndSet(p, p + 1)) return true;
+      }
+    }
+
+    private boolean tryRetire() {
+      return pins.compareAndSet(0, -1);
+    }
+  }
+
+  /**
+   * A batch of changes that becomes one new version when committed.
+   */
+  public final class Batch {
+    private final ArrayList<Op> ops = new ArrayList<Op>();
+
+    /**
+     * Add a city with the next free index.
+     */
+    public Batch addCity() {
+      ops.add(new Op(CITY, 0, 0, 0, 0));
+      return this;
+    }
+
+    /**
+     * Add a directed route.
+     */
+    public Batch addRoute(int from, int to, int weight, double price) {
+      ops.add(new Op(ADD, from, to, weight, price));
+      return this;
+    }
+
+    /**
+     * Change the distance and price of the directed route from-to, if any;
+     * of several parallel routes, the first one added.
+     */
+    public Batch updateRoute(int from, int to, int weight, double price) {
+      ops.add(new Op(UPDATE, from, to, weight, price));
+      return this;
+    }
+
+    /**
+     * Remove city v and every route to and from it. The routes must be
+     * stored in both directions, as every route of an AirlineSystem is.
+     */
+    public Batch removeCity(int v) {
+      ops.add(new Op(DROP_CITY, v, v, 0, 0));
+      return this;
+    }
+
+    /**
+     * Remove every directed route from-to, if any.
+     */
+    public Batch removeRoute(int from, int to) {
+      ops.add(new Op(REMOVE, from, to, 0, 0));
+      return this;
+    }
+
+    /**
+     * Apply the changes and publish the new version.
+     */
+    public Version commit() {
+      return VersionedGraph.this.commit(ops);
+    }
+  }
+}